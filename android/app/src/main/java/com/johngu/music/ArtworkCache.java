@@ -0,0 +1,221 @@
+package com.johngu.music;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.MediaMetadataRetriever;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.flutter.Log;
+
+// Downscaled embedded artwork kept in the app cache dir. Entries are keyed by
+// file path, thumbnail size and the file's mtime, so an edited file misses.
+// Files with no artwork get an empty entry so they are not demuxed again.
+public final class ArtworkCache {
+    static public final int SIZE_SMALL = 128;
+    static public final int SIZE_LARGE = 512;
+    static private final int[] SIZES = {SIZE_SMALL, SIZE_LARGE};
+    static private final long DEFAULT_BUDGET_BYTES = 32 * 1024 * 1024;
+    static private final int JPEG_QUALITY = 85;
+
+    static private ArtworkCache instance;
+
+    static public synchronized ArtworkCache getInstance(@NonNull final Context context) {
+        if (instance == null) {
+            instance = new ArtworkCache(new File(context.getCacheDir(), "artwork"), DEFAULT_BUDGET_BYTES);
+        }
+        return instance;
+    }
+
+    final private File directory;
+    final private long budgetBytes;
+    // file name -> length, least recently used first
+    final private LinkedHashMap<String, Long> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalBytes = 0;
+
+    ArtworkCache(@NonNull final File directory, final long budgetBytes) {
+        this.directory = directory;
+        this.budgetBytes = budgetBytes;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.d("ArtworkCache", "Failed to create " + directory);
+        }
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+            for (final File file : files) {
+                if (file.getName().endsWith(".tmp")) {
+                    file.delete();
+                    continue;
+                }
+                entries.put(file.getName(), file.length());
+                totalBytes += file.length();
+            }
+        }
+        trim();
+    }
+
+    // Returns the JPEG thumbnail fitting in [size] x [size], or null if the file has no artwork.
+    @Nullable
+    public byte[] getThumbnail(@NonNull final String filePath, final int size) {
+        return getThumbnail(filePath, size, null);
+    }
+
+    // Same, reading the artwork through [opened] on a miss when the caller
+    // already has a retriever with [filePath] set as data source.
+    @Nullable
+    public byte[] getThumbnail(@NonNull final String filePath,
+                               final int size,
+                               @Nullable final MediaMetadataRetriever opened) {
+        final long mtime = new File(filePath).lastModified();
+        final String name = key(filePath, size, mtime);
+        final byte[] cached = read(name);
+        if (cached != null) return cached.length == 0 ? null : cached;
+
+        // Miss: demux once and fill every standard size along with the requested one
+        final byte[] picture = opened == null ? extractEmbeddedPicture(filePath) : opened.getEmbeddedPicture();
+        byte[] requested = null;
+        for (final int s : SIZES) {
+            final byte[] thumbnail = picture == null ? new byte[0] : downscale(picture, s);
+            write(key(filePath, s, mtime), thumbnail);
+            if (s == size) requested = thumbnail;
+        }
+        if (requested == null) {
+            requested = picture == null ? new byte[0] : downscale(picture, size);
+            write(name, requested);
+        }
+        return requested.length == 0 ? null : requested;
+    }
+
+    public synchronized void clear() {
+        for (final String name : entries.keySet()) {
+            new File(directory, name).delete();
+        }
+        entries.clear();
+        totalBytes = 0;
+    }
+
+    @Nullable
+    private byte[] read(final String name) {
+        synchronized (this) {
+            if (entries.get(name) == null) return null;
+        }
+        final File file = new File(directory, name);
+        try (final InputStream inputStream = new FileInputStream(file)) {
+            final byte[] bytes = new byte[(int) file.length()];
+            int offset = 0;
+            while (offset < bytes.length) {
+                final int read = inputStream.read(bytes, offset, bytes.length - offset);
+                if (read < 0) throw new IOException("Truncated " + name);
+                offset += read;
+            }
+            // persist the recency so LRU order survives restarts
+            file.setLastModified(System.currentTimeMillis());
+            return bytes;
+        } catch (IOException e) {
+            synchronized (this) {
+                final Long length = entries.remove(name);
+                if (length != null) totalBytes -= length;
+            }
+            return null;
+        }
+    }
+
+    private void write(final String name, final byte[] bytes) {
+        final File tmp = new File(directory, name + ".tmp");
+        final File file = new File(directory, name);
+        try (final OutputStream outputStream = new FileOutputStream(tmp)) {
+            outputStream.write(bytes);
+        } catch (IOException e) {
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            return;
+        }
+        synchronized (this) {
+            final Long previous = entries.put(name, (long) bytes.length);
+            if (previous != null) totalBytes -= previous;
+            totalBytes += bytes.length;
+            trim();
+        }
+    }
+
+    private void trim() {
+        final Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (totalBytes > budgetBytes && iterator.hasNext()) {
+            final Map.Entry<String, Long> eldest = iterator.next();
+            new File(directory, eldest.getKey()).delete();
+            totalBytes -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    @Nullable
+    static private byte[] extractEmbeddedPicture(final String filePath) {
+        final MediaMetadataRetriever mmr = Constants.MediaMetadataRetrieverPool.acquire();
+        try {
+            mmr.setDataSource(filePath);
+            final byte[] picture = mmr.getEmbeddedPicture();
+            Constants.MediaMetadataRetrieverPool.release(mmr);
+            return picture;
+        } catch (RuntimeException e) {
+            Log.d("ArtworkCache", "Failed to read " + filePath);
+            Constants.MediaMetadataRetrieverPool.discard(mmr);
+            return null;
+        }
+    }
+
+    static byte[] downscale(@NonNull final byte[] picture, final int size) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(picture, 0, picture.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return new byte[0];
+        options.inSampleSize = Constants.calculateInSampleSize(options, size, size);
+        options.inJustDecodeBounds = false;
+        Bitmap bitmap = BitmapFactory.decodeByteArray(picture, 0, picture.length, options);
+        if (bitmap == null) return new byte[0];
+
+        final int longest = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (longest > size) {
+            final float scale = (float) size / longest;
+            final Bitmap scaled = Bitmap.createScaledBitmap(bitmap,
+                    Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                    Math.max(1, Math.round(bitmap.getHeight() * scale)),
+                    true);
+            if (scaled != bitmap) bitmap.recycle();
+            bitmap = scaled;
+        }
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, outputStream);
+        bitmap.recycle();
+        return outputStream.toByteArray();
+    }
+
+    static private String key(final String filePath, final int size, final long mtime) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            final byte[] hash = digest.digest((filePath + '\n' + size + '\n' + mtime).getBytes(Charset.forName("UTF-8")));
+            return Constants.toHexString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
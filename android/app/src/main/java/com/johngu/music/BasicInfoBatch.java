@@ -0,0 +1,104 @@
+package com.johngu.music;
+
+import android.media.MediaMetadataRetriever;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import io.flutter.Log;
+
+import static java.lang.Math.max;
+
+// Coordinates one getBasicInfoBatch call: fans the paths out to the worker pool
+// and streams results back to Dart in chunks instead of one message per file.
+final class BasicInfoBatch implements Runnable {
+    static final int CHUNK_SIZE = 200;
+    static final long CHUNK_INTERVAL_MS = 50;
+    static private final int MAX_IN_FLIGHT = 32;
+
+    final List<String> filePaths;
+    final int token;
+    final Executor workers;
+
+    BasicInfoBatch(@NonNull final List<String> filePaths, final int token, @NonNull final Executor workers) {
+        this.filePaths = filePaths;
+        this.token = token;
+        this.workers = workers;
+    }
+
+    @Override
+    public void run() {
+        final int total = filePaths.size();
+        final BlockingQueue<Map<String, Object>> results = new LinkedBlockingQueue<>();
+        // bound the work handed to the pool so a 20k path list never sits in its queue
+        final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+        List<Map<String, Object>> chunk = new ArrayList<>(CHUNK_SIZE);
+        long lastFlush = SystemClock.uptimeMillis();
+        int submitted = 0;
+        int received = 0;
+
+        try {
+            while (received < total) {
+                while (submitted < total && inFlight.tryAcquire()) {
+                    final String filePath = filePaths.get(submitted++);
+                    workers.execute(() -> results.add(extract(filePath)));
+                }
+
+                final long wait = max(0, lastFlush + CHUNK_INTERVAL_MS - SystemClock.uptimeMillis());
+                final Map<String, Object> info = results.poll(wait, TimeUnit.MILLISECONDS);
+                if (info != null) {
+                    chunk.add(info);
+                    received++;
+                    inFlight.release();
+                }
+
+                final long now = SystemClock.uptimeMillis();
+                if (received < total && !chunk.isEmpty()
+                        && (chunk.size() >= CHUNK_SIZE || now - lastFlush >= CHUNK_INTERVAL_MS)) {
+                    post(chunk, false);
+                    chunk = new ArrayList<>(CHUNK_SIZE);
+                    lastFlush = now;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        post(chunk, true);
+    }
+
+    private void post(final List<Map<String, Object>> chunk, final boolean done) {
+        final Map<String, Object> message = new HashMap<>();
+        message.put("token", token);
+        message.put("results", chunk);
+        message.put("done", done);
+        Constants.MainThread.post(() ->
+                Constants.MediaMetadataRetrieverMethodChannel.invokeMethod("getBasicInfoBatch", message));
+    }
+
+    static Map<String, Object> extract(final String filePath) {
+        final Map<String, Object> info = new HashMap<>();
+        info.put("filePath", filePath);
+        final MediaMetadataRetriever mmr = Constants.MediaMetadataRetrieverPool.acquire();
+        try {
+            mmr.setDataSource(filePath);
+            info.put("title", mmr.extractMetadata(MediaMetadataRetriever.METADATA_KEY_TITLE));
+            info.put("artist", mmr.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ARTIST));
+            info.put("album", mmr.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ALBUM));
+            Constants.MediaMetadataRetrieverPool.release(mmr);
+        } catch (RuntimeException e) {
+            Log.d("BasicInfoBatch", "Failed to read " + filePath);
+            Constants.MediaMetadataRetrieverPool.discard(mmr);
+        }
+        return info;
+    }
+}
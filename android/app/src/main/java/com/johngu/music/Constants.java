@@ -1,19 +1,38 @@
 package com.johngu.music;
 
 import android.graphics.BitmapFactory;
+import android.media.MediaMetadataRetriever;
 import android.os.Handler;
 
+import java.nio.ByteBuffer;
 import java.util.concurrent.ThreadFactory;
 
+import io.flutter.plugin.common.BasicMessageChannel;
 import io.flutter.plugin.common.MethodChannel;
 
 public final class Constants {
     static MethodChannel NativeMethodChannel;
     static MethodChannel MediaMetadataRetrieverMethodChannel;
+    static MethodChannel LibraryMethodChannel;
     static public MethodChannel MediaPlayerMethodChannel;
+    static public BasicMessageChannel<ByteBuffer> MediaPlayerStateChannel;
 
     static public Handler MainThread;
 
+    // Retrievers are reused across files, one per metadata worker
+    static public final ObjectPool<MediaMetadataRetriever> MediaMetadataRetrieverPool =
+            new ObjectPool<>(new ObjectPool.Factory<MediaMetadataRetriever>() {
+                @Override
+                public MediaMetadataRetriever create() {
+                    return new MediaMetadataRetriever();
+                }
+
+                @Override
+                public void destroy(MediaMetadataRetriever object) {
+                    object.release();
+                }
+            }, 4, 30 * 1000);
+
     static public final ThreadFactory MIN_PRIORITY_ThreadFactory = (final Runnable r) -> {
         final Thread thread = new Thread(r);
         thread.setPriority(Thread.MIN_PRIORITY);
@@ -22,26 +41,17 @@ public final class Constants {
         return thread;
     };
 
-    public static int calculateInSampleSize(
-            BitmapFactory.Options options, int reqWidth, int reqHeight) {
-        // Raw height and width of image
-        final int height = options.outHeight;
-        final int width = options.outWidth;
-        int inSampleSize = 1;
-
-        if (height > reqHeight || width > reqWidth) {
-
-            final int halfHeight = height / 2;
-            final int halfWidth = width / 2;
-
-            // Calculate the largest inSampleSize value that is a power of 2 and keeps both
-            // height and width larger than the requested height and width.
-            while ((halfHeight / inSampleSize) >= reqHeight
-                    && (halfWidth / inSampleSize) >= reqWidth) {
-                inSampleSize *= 2;
-            }
+    public static String toHexString(final byte[] bytes) {
+        final StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (final byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+            builder.append(Character.forDigit(b & 0xF, 16));
         }
+        return builder.toString();
+    }
 
-        return inSampleSize;
+    public static int calculateInSampleSize(
+            BitmapFactory.Options options, int reqWidth, int reqHeight) {
+        return InSampleSize.calculate(options.outWidth, options.outHeight, reqWidth, reqHeight);
     }
 }
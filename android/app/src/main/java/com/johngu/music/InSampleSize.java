@@ -0,0 +1,29 @@
+package com.johngu.music;
+
+// Bitmap subsampling factor, kept free of android.* so the JVM benchmarks can run it
+final class InSampleSize {
+    private InSampleSize() {
+    }
+
+    // Largest power of 2 that keeps both sides at least as large as requested,
+    // 1 for a requested side <= 0 that no factor could ever satisfy
+    static int calculate(final int width, final int height, final int reqWidth, final int reqHeight) {
+        int inSampleSize = 1;
+        if (reqWidth <= 0 || reqHeight <= 0) return inSampleSize;
+
+        if (height > reqHeight || width > reqWidth) {
+
+            final int halfHeight = height / 2;
+            final int halfWidth = width / 2;
+
+            // Calculate the largest inSampleSize value that is a power of 2 and keeps both
+            // height and width larger than the requested height and width.
+            while ((halfHeight / inSampleSize) >= reqHeight
+                    && (halfWidth / inSampleSize) >= reqWidth) {
+                inSampleSize *= 2;
+            }
+        }
+
+        return inSampleSize;
+    }
+}
@@ -0,0 +1,192 @@
+package com.johngu.music;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Read-only library index, opened through a MappedByteBuffer so a cold start
+// touches only the pages Dart asks for. Layout, big-endian:
+//   header   magic | version | trackCount | stringCount | stringsOffset | recordsOffset
+//   strings  (stringCount + 1) int offsets into the UTF-8 blob, then the blob
+//   records  trackCount fixed-width records of RECORD_SIZE bytes
+//            path | title | artist | album (string index or NO_STRING) | duration | size | mtime
+// Every distinct string is stored once, so artists and albums shared by many
+// tracks cost one table entry each.
+final class LibraryIndexFile {
+    static private final int MAGIC = 0x4D584C49; // "MXLI"
+    static private final int VERSION = 2;
+    static private final int HEADER_SIZE = 6 * 4;
+    static final int RECORD_SIZE = 5 * 4 + 2 * 8;
+    static private final int NO_STRING = -1;
+    static private final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final class Entry {
+        final String filePath;
+        final long size;
+        final long mtime;
+        final String title;
+        final String artist;
+        final String album;
+        final int duration;
+
+        Entry(final String filePath, final long size, final long mtime,
+              final String title, final String artist, final String album, final int duration) {
+            this.filePath = filePath;
+            this.size = size;
+            this.mtime = mtime;
+            this.title = title;
+            this.artist = artist;
+            this.album = album;
+            this.duration = duration;
+        }
+
+        Map<String, Object> toMap() {
+            final Map<String, Object> map = new HashMap<>();
+            map.put("filePath", filePath);
+            map.put("title", title);
+            map.put("artist", artist);
+            map.put("album", album);
+            map.put("duration", duration);
+            return map;
+        }
+    }
+
+    static final LibraryIndexFile EMPTY = new LibraryIndexFile(null, 0, 0, 0, 0);
+
+    final private ByteBuffer buffer;
+    final private int trackCount;
+    final private int stringCount;
+    final private int stringsOffset;
+    final private int recordsOffset;
+
+    private LibraryIndexFile(final ByteBuffer buffer, final int trackCount, final int stringCount,
+                             final int stringsOffset, final int recordsOffset) {
+        this.buffer = buffer;
+        this.trackCount = trackCount;
+        this.stringCount = stringCount;
+        this.stringsOffset = stringsOffset;
+        this.recordsOffset = recordsOffset;
+    }
+
+    static LibraryIndexFile open(final File file) throws IOException {
+        if (!file.isFile()) return EMPTY;
+        final MappedByteBuffer buffer;
+        try (final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            // the mapping stays valid after the channel is closed
+            buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+        }
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+            throw new IOException("Not a library index " + file);
+        final int trackCount = buffer.getInt(8);
+        final int stringCount = buffer.getInt(12);
+        final int stringsOffset = buffer.getInt(16);
+        final int recordsOffset = buffer.getInt(20);
+        if (recordsOffset + (long) trackCount * RECORD_SIZE > buffer.capacity())
+            throw new IOException("Truncated library index " + file);
+        return new LibraryIndexFile(buffer, trackCount, stringCount, stringsOffset, recordsOffset);
+    }
+
+    int size() {
+        return trackCount;
+    }
+
+    Entry get(final int index) {
+        if (index < 0 || index >= trackCount) throw new IndexOutOfBoundsException(String.valueOf(index));
+        final int record = recordsOffset + index * RECORD_SIZE;
+        return new Entry(string(buffer.getInt(record)),
+                buffer.getLong(record + 20),
+                buffer.getLong(record + 28),
+                string(buffer.getInt(record + 4)),
+                string(buffer.getInt(record + 8)),
+                string(buffer.getInt(record + 12)),
+                buffer.getInt(record + 16));
+    }
+
+    // Records [offset, offset + count) clamped to the index
+    List<Entry> slice(final int offset, final int count) {
+        final int from = Math.max(0, offset);
+        final int to = (int) Math.min(trackCount, (long) from + Math.max(0, count));
+        final List<Entry> entries = new ArrayList<>(Math.max(0, to - from));
+        for (int i = from; i < to; i++) entries.add(get(i));
+        return entries;
+    }
+
+    private String string(final int index) {
+        if (index == NO_STRING || index >= stringCount) return null;
+        final int table = stringsOffset + index * 4;
+        final int start = buffer.getInt(table);
+        final int end = buffer.getInt(table + 4);
+        final byte[] bytes = new byte[end - start];
+        final ByteBuffer view = buffer.duplicate();
+        view.position(stringsOffset + (stringCount + 1) * 4 + start);
+        view.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    // Writes [entries] to a temporary file and renames it over [file]
+    static void write(final File file, final List<Entry> entries) throws IOException {
+        final Map<String, Integer> interned = new HashMap<>();
+        final List<byte[]> strings = new ArrayList<>();
+        final int[] indices = new int[entries.size() * 4];
+        int blobSize = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            final Entry entry = entries.get(i);
+            final String[] values = {entry.filePath, entry.title, entry.artist, entry.album};
+            for (int j = 0; j < values.length; j++) {
+                if (values[j] == null) {
+                    indices[i * 4 + j] = NO_STRING;
+                    continue;
+                }
+                Integer index = interned.get(values[j]);
+                if (index == null) {
+                    final byte[] bytes = values[j].getBytes(UTF_8);
+                    index = strings.size();
+                    strings.add(bytes);
+                    interned.put(values[j], index);
+                    blobSize += bytes.length;
+                }
+                indices[i * 4 + j] = index;
+            }
+        }
+
+        final int stringsOffset = HEADER_SIZE;
+        final int recordsOffset = stringsOffset + (strings.size() + 1) * 4 + blobSize;
+        final ByteBuffer out = ByteBuffer.allocate(recordsOffset + entries.size() * RECORD_SIZE);
+        out.putInt(MAGIC).putInt(VERSION).putInt(entries.size()).putInt(strings.size())
+                .putInt(stringsOffset).putInt(recordsOffset);
+        int position = 0;
+        for (final byte[] bytes : strings) {
+            out.putInt(position);
+            position += bytes.length;
+        }
+        out.putInt(position);
+        for (final byte[] bytes : strings) out.put(bytes);
+        for (int i = 0; i < entries.size(); i++) {
+            final Entry entry = entries.get(i);
+            out.putInt(indices[i * 4]).putInt(indices[i * 4 + 1]).putInt(indices[i * 4 + 2]).putInt(indices[i * 4 + 3])
+                    .putInt(entry.duration).putLong(entry.size).putLong(entry.mtime);
+        }
+
+        final File tmp = new File(file.getPath() + ".tmp");
+        try (final FileOutputStream outputStream = new FileOutputStream(tmp)) {
+            outputStream.write(out.array());
+            outputStream.getFD().sync();
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Failed to replace " + file);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.johngu.music;
+
+import android.media.MediaMetadataRetriever;
+
+import androidx.annotation.NonNull;
+
+import com.johngu.music.LibraryIndexFile.Entry;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+
+import io.flutter.Log;
+
+// Java side music library. A scan walks the configured directories, reuses
+// the stored tags of every file whose size and mtime did not change and only
+// runs MediaMetadataRetriever on new or modified files, on the worker pool.
+// The result is stored as a LibraryIndexFile in the app files dir, which Dart
+// pages through at startup without any tag being read again.
+final class LibraryIndexer {
+    static private final int MAX_IN_FLIGHT = 32;
+    static private final String[] EXTENSIONS = {
+            ".mp3", ".flac", ".m4a", ".aac", ".ogg", ".opus", ".wav", ".wma", ".ape"};
+
+    final private File indexFile;
+    private LibraryIndexFile index;
+
+    LibraryIndexer(@NonNull final File indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    // Returns {total, extracted, removed, elapsed}. Throws IllegalStateException
+    // when interrupted or a worker failed, the stored index is left as it was
+    synchronized Map<String, Object> scan(@NonNull final List<String> directories, @NonNull final Executor workers) {
+        final long start = System.currentTimeMillis();
+        final Map<String, Entry> previous = new HashMap<>();
+        final LibraryIndexFile stored = open();
+        for (int i = 0; i < stored.size(); i++) {
+            final Entry entry = stored.get(i);
+            previous.put(entry.filePath, entry);
+        }
+
+        final List<File> files = new ArrayList<>();
+        final Set<String> visited = new HashSet<>();
+        for (final String directory : directories) collect(new File(directory), files, visited);
+
+        final List<Entry> entries = new ArrayList<>(files.size());
+        final CompletionService<Entry> completionService = new ExecutorCompletionService<>(workers);
+        int inFlight = 0;
+        int extracted = 0;
+        for (final File file : files) {
+            final Entry known = previous.remove(file.getPath());
+            if (known != null && known.size == file.length() && known.mtime == file.lastModified()) {
+                entries.add(known);
+                continue;
+            }
+            if (inFlight >= MAX_IN_FLIGHT) {
+                entries.add(take(completionService));
+                inFlight--;
+            }
+            completionService.submit(() -> extract(file));
+            inFlight++;
+            extracted++;
+        }
+        while (inFlight-- > 0) entries.add(take(completionService));
+
+        save(entries);
+        final Map<String, Object> stats = new HashMap<>();
+        stats.put("total", entries.size());
+        stats.put("extracted", extracted);
+        stats.put("removed", previous.size());
+        stats.put("elapsed", (int) (System.currentTimeMillis() - start));
+        return stats;
+    }
+
+    synchronized LibraryIndexFile open() {
+        if (index == null) {
+            try {
+                index = LibraryIndexFile.open(indexFile);
+            } catch (IOException e) {
+                Log.d("LibraryIndexer", "Dropping unreadable index " + e);
+                index = LibraryIndexFile.EMPTY;
+            }
+        }
+        return index;
+    }
+
+    // Returns {total, tracks} with the records [offset, offset + count)
+    Map<String, Object> page(final int offset, final int count) {
+        final LibraryIndexFile index = open();
+        final List<Map<String, Object>> tracks = new ArrayList<>();
+        for (final Entry entry : index.slice(offset, count)) tracks.add(entry.toMap());
+        final Map<String, Object> page = new HashMap<>();
+        page.put("total", index.size());
+        page.put("tracks", tracks);
+        return page;
+    }
+
+    private void save(final List<Entry> entries) {
+        try {
+            LibraryIndexFile.write(indexFile, entries);
+        } catch (IOException e) {
+            Log.d("LibraryIndexer", "Failed to save index " + e);
+        }
+        index = null;
+    }
+
+    // [visited] holds canonical paths, a symlinked directory is walked once and a link cycle ends
+    static private void collect(final File directory, final List<File> files, final Set<String> visited) {
+        final ArrayDeque<File> pending = new ArrayDeque<>();
+        pending.add(directory);
+        while (!pending.isEmpty()) {
+            final File next = pending.poll();
+            try {
+                if (!visited.add(next.getCanonicalPath())) continue;
+            } catch (IOException e) {
+                continue;
+            }
+            final File[] children = next.listFiles();
+            if (children == null) continue;
+            for (final File child : children) {
+                if (child.isDirectory()) {
+                    if (!child.isHidden()) pending.add(child);
+                } else if (isAudio(child.getName())) {
+                    files.add(child);
+                }
+            }
+        }
+    }
+
+    static private boolean isAudio(final String name) {
+        final String lower = name.toLowerCase(Locale.ROOT);
+        for (final String extension : EXTENSIONS) {
+            if (lower.endsWith(extension)) return true;
+        }
+        return false;
+    }
+
+    static private Entry take(final CompletionService<Entry> completionService) {
+        try {
+            return completionService.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static Entry extract(final File file) {
+        final long size = file.length();
+        final long mtime = file.lastModified();
+        final MediaMetadataRetriever mmr = Constants.MediaMetadataRetrieverPool.acquire();
+        try {
+            mmr.setDataSource(file.getPath());
+            final String duration = mmr.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+            final Entry entry = new Entry(file.getPath(), size, mtime,
+                    mmr.extractMetadata(MediaMetadataRetriever.METADATA_KEY_TITLE),
+                    mmr.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ARTIST),
+                    mmr.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ALBUM),
+                    duration == null ? 0 : Integer.parseInt(duration));
+            Constants.MediaMetadataRetrieverPool.release(mmr);
+            return entry;
+        } catch (RuntimeException e) {
+            Log.d("LibraryIndexer", "Failed to read " + file);
+            Constants.MediaMetadataRetrieverPool.discard(mmr);
+            return new Entry(file.getPath(), size, mtime, null, null, null, 0);
+        }
+    }
+}
@@ -3,8 +3,6 @@ package com.johngu.music;
 import android.content.ComponentName;
 import android.content.Intent;
 import android.content.ServiceConnection;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.media.AudioManager;
 import android.media.MediaMetadataRetriever;
 import android.os.Bundle;
@@ -12,19 +10,21 @@ import android.os.Handler;
 import android.os.IBinder;
 
 import androidx.annotation.NonNull;
-import androidx.palette.graphics.Palette;
 
 import com.johngu.music.Service.MediaService;
 
-import java.util.HashMap;
+import java.io.File;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import io.flutter.Log;
 import io.flutter.embedding.android.FlutterActivity;
 import io.flutter.embedding.engine.FlutterEngine;
+import io.flutter.plugin.common.BasicMessageChannel;
+import io.flutter.plugin.common.BinaryCodec;
+import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugins.GeneratedPluginRegistrant;
@@ -32,19 +32,27 @@ import io.flutter.plugins.GeneratedPluginRegistrant;
 public class MainActivity extends FlutterActivity {
     static public MainActivity instance;
     MediaService.MediaServiceBinder mediaServiceBinder;
+    // kept until the service is bound
+    private EventChannel.EventSink positionSink;
+    private int positionInterval;
+    private boolean binaryStateEvents = false;
 
     @Override
     public void configureFlutterEngine(@NonNull FlutterEngine flutterEngine) {
         GeneratedPluginRegistrant.registerWith(flutterEngine);
 
 
-        final ThreadPoolExecutor threadPoolExecutor =
-                new ThreadPoolExecutor(2,
-                        4, 1,
-                        TimeUnit.MINUTES,
-                        new LinkedBlockingQueue<>(),
+        // Bounded and newest first, palettes of tiles scrolled past are dropped
+        final PriorityTaskExecutor paletteExecutor =
+                new PriorityTaskExecutor(2,
                         Constants.MIN_PRIORITY_ThreadFactory,
-                        new ThreadPoolExecutor.DiscardOldestPolicy());
+                        PALETTE_QUEUE_CAPACITY,
+                        true);
+
+        final int metadataWorkers = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        final PriorityTaskExecutor metadataExecutor =
+                new PriorityTaskExecutor(metadataWorkers, Constants.MIN_PRIORITY_ThreadFactory);
+        final ExecutorService batchExecutor = Executors.newSingleThreadExecutor(Constants.MIN_PRIORITY_ThreadFactory);
 
         Constants.NativeMethodChannel = new MethodChannel(
                 flutterEngine.getDartExecutor().getBinaryMessenger(),
@@ -65,10 +73,29 @@ public class MainActivity extends FlutterActivity {
                         case "Palette":
                             final int token = methodCall.argument("token");
                             final byte[] data = methodCall.argument("data");
-                            threadPoolExecutor.execute(new PaletteRunnable(data, token));
+                            PaletteService.getInstance(this).request(data, token,
+                                    paletteArgumentPriority(methodCall), paletteExecutor);
+                            result.success(null);
+                            return;
+
+                        case "PaletteForFile":
+                            PaletteService.getInstance(this).requestForFile(this,
+                                    methodCall.argument("filePath"),
+                                    methodCall.argument("token"),
+                                    paletteArgumentPriority(methodCall),
+                                    paletteExecutor);
                             result.success(null);
                             return;
 
+                        case "cancelPalette":
+                            result.success(PaletteService.getInstance(this)
+                                    .cancel(methodCall.argument("token"), paletteExecutor));
+                            return;
+
+                        case "getPaletteMetrics":
+                            result.success(paletteExecutor.getMetrics());
+                            return;
+
                         default:
                             result.notImplemented();
                     }
@@ -80,25 +107,89 @@ public class MainActivity extends FlutterActivity {
         Constants.MediaMetadataRetrieverMethodChannel.setMethodCallHandler(
                 (final MethodCall methodCall, final MethodChannel.Result result) -> {
                     final String filePath = methodCall.argument("filePath");
-                    MediaMetadataRetriever mmr;
+                    final Integer token = methodCall.argument("token");
+                    final Integer priority = methodCall.argument("priority");
+                    // Dart gets null back when it cancels the token before the work starts
+                    final Runnable onCancel = () -> Constants.MainThread.post(() -> result.success(null));
                     switch (methodCall.method) {
                         case "getEmbeddedPicture":
-                            mmr = new MediaMetadataRetriever();
-                            mmr.setDataSource(filePath);
-                            result.success(mmr.getEmbeddedPicture());
-                            mmr.release();
+                            metadataExecutor.execute(token,
+                                    priority == null ? PriorityTaskExecutor.PRIORITY_HIGH : priority,
+                                    () -> {
+                                        final MediaMetadataRetriever mmr = Constants.MediaMetadataRetrieverPool.acquire();
+                                        byte[] picture = null;
+                                        try {
+                                            mmr.setDataSource(filePath);
+                                            picture = mmr.getEmbeddedPicture();
+                                            Constants.MediaMetadataRetrieverPool.release(mmr);
+                                        } catch (RuntimeException e) {
+                                            Log.d("MediaMetadataRetriever", "Failed to read " + filePath);
+                                            Constants.MediaMetadataRetrieverPool.discard(mmr);
+                                        }
+                                        final byte[] data = picture;
+                                        Constants.MainThread.post(() -> result.success(data));
+                                    },
+                                    onCancel);
                             return;
 
                         case "getBasicInfo":
-                            mmr = new MediaMetadataRetriever();
-                            mmr.setDataSource(filePath);
-                            final Map<String, String> info = new HashMap<String, String>() {{
-                                put("title", mmr.extractMetadata(MediaMetadataRetriever.METADATA_KEY_TITLE));
-                                put("artist", mmr.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ARTIST));
-                                put("album", mmr.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ALBUM));
-                            }};
-                            result.success(info);
-                            mmr.release();
+                            metadataExecutor.execute(token,
+                                    priority == null ? PriorityTaskExecutor.PRIORITY_HIGH : priority,
+                                    () -> {
+                                        final Map<String, Object> info = BasicInfoBatch.extract(filePath);
+                                        Constants.MainThread.post(() -> result.success(info));
+                                    },
+                                    onCancel);
+                            return;
+
+                        case "getTrackInfo":
+                            final Integer thumbnailSize = methodCall.argument("thumbnailSize");
+                            metadataExecutor.execute(token,
+                                    priority == null ? PriorityTaskExecutor.PRIORITY_HIGH : priority,
+                                    () -> {
+                                        final Map<String, Object> info = TrackInfoCache.getTrackInfo(this,
+                                                filePath, thumbnailSize == null ? 0 : thumbnailSize);
+                                        Constants.MainThread.post(() -> result.success(info));
+                                    },
+                                    onCancel);
+                            return;
+
+                        case "getThumbnail":
+                            final Integer size = methodCall.argument("size");
+                            if (size == null || size <= 0) {
+                                result.error("IllegalArgument", "Thumbnail size must be positive, got " + size, null);
+                                return;
+                            }
+                            metadataExecutor.execute(token,
+                                    priority == null ? PriorityTaskExecutor.PRIORITY_HIGH : priority,
+                                    () -> {
+                                        final byte[] thumbnail = ArtworkCache.getInstance(this).getThumbnail(filePath, size);
+                                        Constants.MainThread.post(() -> result.success(thumbnail));
+                                    },
+                                    onCancel);
+                            return;
+
+                        case "cancel":
+                            result.success(token != null && metadataExecutor.cancel(token));
+                            return;
+
+                        case "getMetrics":
+                            result.success(metadataExecutor.getMetrics());
+                            return;
+
+                        case "getPoolMetrics":
+                            result.success(Constants.MediaMetadataRetrieverPool.getMetrics());
+                            return;
+
+                        case "getBasicInfoBatch":
+                            final List<String> filePaths = methodCall.argument("filePaths");
+                            // checked here, the batch thread could no longer tell Dart
+                            if (filePaths == null || token == null) {
+                                result.error("IllegalArgument", "A batch needs filePaths and a token", null);
+                                return;
+                            }
+                            batchExecutor.execute(new BasicInfoBatch(filePaths, token, metadataExecutor));
+                            result.success(null);
                             return;
 
                         default:
@@ -108,13 +199,102 @@ public class MainActivity extends FlutterActivity {
                 });
 
 
+        final LibraryIndexer libraryIndexer = new LibraryIndexer(new File(getFilesDir(), "library.index"));
+        Constants.LibraryMethodChannel =
+                new MethodChannel(flutterEngine.getDartExecutor().getBinaryMessenger(), "Library");
+        Constants.LibraryMethodChannel.setMethodCallHandler(
+                (final MethodCall methodCall, final MethodChannel.Result result) -> {
+                    switch (methodCall.method) {
+                        case "scan":
+                            final List<String> directories = methodCall.argument("directories");
+                            if (directories == null) {
+                                result.error("IllegalArgument", "No directories to scan", null);
+                                return;
+                            }
+                            batchExecutor.execute(() -> {
+                                try {
+                                    final Map<String, Object> stats = libraryIndexer.scan(directories, metadataExecutor);
+                                    Constants.MainThread.post(() -> result.success(stats));
+                                } catch (RuntimeException e) {
+                                    Log.d("LibraryIndexer", "Scan failed " + e);
+                                    Constants.MainThread.post(() -> result.error("ScanFailed", e.toString(), null));
+                                }
+                            });
+                            return;
+
+                        case "page":
+                            final int offset = methodCall.argument("offset");
+                            final int count = methodCall.argument("count");
+                            batchExecutor.execute(() -> {
+                                try {
+                                    final Map<String, Object> page = libraryIndexer.page(offset, count);
+                                    Constants.MainThread.post(() -> result.success(page));
+                                } catch (RuntimeException e) {
+                                    Log.d("LibraryIndexer", "Page failed " + e);
+                                    Constants.MainThread.post(() -> result.error("PageFailed", e.toString(), null));
+                                }
+                            });
+                            return;
+
+                        default:
+                            result.notImplemented();
+                    }
+                });
+
         Constants.MediaPlayerMethodChannel =
                 new MethodChannel(flutterEngine.getDartExecutor().getBinaryMessenger(), "MediaPlayer");
         Constants.MediaPlayerMethodChannel.setMethodCallHandler(
                 this::MediaPlayerMethodCall);
+        Constants.MediaPlayerStateChannel = new BasicMessageChannel<>(
+                flutterEngine.getDartExecutor().getBinaryMessenger(), "MediaPlayer/state", BinaryCodec.INSTANCE);
+
+        new EventChannel(flutterEngine.getDartExecutor().getBinaryMessenger(), "MediaPlayer/position")
+                .setStreamHandler(new EventChannel.StreamHandler() {
+                    @Override
+                    public void onListen(Object arguments, EventChannel.EventSink events) {
+                        final Integer interval = arguments instanceof Map
+                                ? (Integer) ((Map) arguments).get("interval") : null;
+                        positionSink = events;
+                        positionInterval = interval == null ? 500 : interval;
+                        if (mediaServiceBinder != null)
+                            mediaServiceBinder.setPositionSink(positionSink, positionInterval);
+                    }
+
+                    @Override
+                    public void onCancel(Object arguments) {
+                        positionSink = null;
+                        if (mediaServiceBinder != null)
+                            mediaServiceBinder.setPositionSink(null, positionInterval);
+                    }
+                });
 
     }
 
+    static private final int PALETTE_QUEUE_CAPACITY = 64;
+
+    static private int paletteArgumentPriority(final MethodCall methodCall) {
+        final Integer priority = methodCall.argument("priority");
+        return priority == null ? PriorityTaskExecutor.PRIORITY_HIGH : priority;
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        if (mediaServiceBinder != null) mediaServiceBinder.setPositionTickerForeground(true);
+    }
+
+    @Override
+    protected void onPause() {
+        if (mediaServiceBinder != null) mediaServiceBinder.setPositionTickerForeground(false);
+        super.onPause();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_UI_HIDDEN) Constants.MediaMetadataRetrieverPool.clear();
+    }
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -133,6 +313,9 @@ public class MainActivity extends FlutterActivity {
                     @Override
                     public final void onServiceConnected(ComponentName name, IBinder service) {
                         mediaServiceBinder = (MediaService.MediaServiceBinder) service;
+                        if (positionSink != null)
+                            mediaServiceBinder.setPositionSink(positionSink, positionInterval);
+                        mediaServiceBinder.setBinaryStateEvents(binaryStateEvents);
                     }
 
                     @Override
@@ -159,6 +342,28 @@ public class MainActivity extends FlutterActivity {
                         methodCall.argument("album"),
                         methodCall.argument("extendFilePath"));
                 break;
+            case "setNextDataSource":
+                mediaServiceBinder.setNextDataSource(methodCall.argument("filePath"),
+                        methodCall.argument("title"),
+                        methodCall.argument("artist"),
+                        methodCall.argument("album"),
+                        methodCall.argument("extendFilePath"));
+                break;
+            case "setQueue":
+                mediaServiceBinder.setQueue(methodCall.argument("tracks"), methodCall.argument("index"));
+                break;
+            case "setQueueMode":
+                mediaServiceBinder.setQueueMode(methodCall.argument("mode"));
+                break;
+            case "skipTo":
+                mediaServiceBinder.skipTo(methodCall.argument("index"));
+                break;
+            case "skipToNext":
+                mediaServiceBinder.skipToNext();
+                break;
+            case "skipToPrevious":
+                mediaServiceBinder.skipToPrevious();
+                break;
             case "seekTo":
                 mediaServiceBinder.seekTo(methodCall.argument("position"));
                 break;
@@ -175,6 +380,11 @@ public class MainActivity extends FlutterActivity {
                 final float volume = (float)((double)methodCall.argument("volume")) ;
                 mediaServiceBinder.setVolume(volume);
                 break;
+            case "setFadeDurations":
+                mediaServiceBinder.setFadeDurations(methodCall.argument("fadeIn"),
+                        methodCall.argument("fadeOut"),
+                        methodCall.argument("crossfade"));
+                break;
             case "getVolume":
                 result.success(mediaServiceBinder.getVolume());
                 return;
@@ -190,6 +400,45 @@ public class MainActivity extends FlutterActivity {
             case "isPlaying":
                 result.success(mediaServiceBinder.isPlaying());
                 return;
+            case "getBitmapCacheStats":
+                result.success(mediaServiceBinder.getBitmapCacheStats());
+                return;
+            case "setBinaryStateEvents":
+                binaryStateEvents = methodCall.argument("enable");
+                if (mediaServiceBinder != null) mediaServiceBinder.setBinaryStateEvents(binaryStateEvents);
+                break;
+            case "getCommandQueueStats":
+                result.success(mediaServiceBinder.getCommandQueueStats());
+                return;
+            case "getRetrieverPoolStats":
+                result.success(mediaServiceBinder.getRetrieverPoolStats());
+                return;
+            case "getNotificationStats":
+                result.success(mediaServiceBinder.getNotificationStats());
+                return;
+            case "getEventStats":
+                result.success(mediaServiceBinder.getEventStats());
+                return;
+            case "getAudioFocusStats":
+                result.success(mediaServiceBinder.getAudioFocusStats());
+                return;
+            case "prefetch":
+                mediaServiceBinder.prefetch(methodCall.argument("paths"),
+                        methodCall.argument("bytesPerTrack"),
+                        methodCall.argument("budget"));
+                break;
+            case "getPrefetchStats":
+                result.success(mediaServiceBinder.getPrefetchStats());
+                return;
+            case "getMetrics":
+                result.success(mediaServiceBinder.getPlaybackMetrics());
+                return;
+            case "setMetricsEnabled":
+                mediaServiceBinder.setMetricsEnabled(methodCall.argument("enable"));
+                break;
+            case "resetMetrics":
+                mediaServiceBinder.resetMetrics();
+                break;
             default:
                 result.notImplemented();
                 return;
@@ -198,38 +447,4 @@ public class MainActivity extends FlutterActivity {
         result.success(null);
     }
 
-
-    private static class PaletteRunnable implements Runnable {
-        final byte[] data;
-        final int token;
-
-        PaletteRunnable(@NonNull final byte[] data, final int token) {
-            this.data = data;
-            this.token = token;
-        }
-
-        @Override
-        public void run() {
-            final Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length);
-            final Palette palette = new Palette.Builder(bitmap).generate();
-            final Map<String, Object> info = new HashMap<String, Object>() {{
-                put("token", token);
-
-                put("Dominant", palette.getDominantSwatch() != null ? palette.getDominantSwatch().getRgb() : null);
-                put("DominantTitleText", palette.getDominantSwatch() != null ? palette.getDominantSwatch().getTitleTextColor() : null);
-                put("Vibrant", palette.getVibrantSwatch() != null ? palette.getVibrantSwatch().getRgb() : null);
-                put("VibrantTitleText", palette.getVibrantSwatch() != null ? palette.getVibrantSwatch().getTitleTextColor() : null);
-                put("Muted", palette.getMutedSwatch() != null ? palette.getMutedSwatch().getRgb() : null);
-                put("MutedTitleText", palette.getMutedSwatch() != null ? palette.getMutedSwatch().getTitleTextColor() : null);
-
-                put("LightVibrant", palette.getLightVibrantSwatch() == null ? null : palette.getLightVibrantSwatch().getRgb());
-                put("LightMuted", palette.getLightMutedSwatch() == null ? null : palette.getLightMutedSwatch().getRgb());
-                put("DarkVibrant", palette.getDarkVibrantSwatch() == null ? null : palette.getDarkVibrantSwatch().getRgb());
-                put("DarkMuted", palette.getDarkMutedSwatch() == null ? null : palette.getDarkMutedSwatch().getRgb());
-            }};
-            Constants.MainThread.post(() ->
-                    Constants.NativeMethodChannel.invokeMethod("Palette", info));
-        }
-    }
-
 }
@@ -0,0 +1,150 @@
+package com.johngu.music;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Bounded pool of expensive native objects such as metadata retrievers.
+// A borrowed object is confined to the borrowing thread until it is handed
+// back with release(), or with discard() when it failed and its native state
+// can no longer be trusted. At most [capacity] idle objects are kept, and
+// objects idle for longer than [maxIdleMs] are destroyed on the next call.
+// Creation and destruction time is recorded so the metrics show what the
+// same calls would have cost without the pool.
+public final class ObjectPool<T> {
+    public interface Factory<T> {
+        T create();
+
+        void destroy(T object);
+    }
+
+    final private Factory<T> factory;
+    final private int capacity;
+    final private long maxIdleNanos;
+    // newest last, so the oldest idle objects are trimmed first
+    final private ArrayDeque<Idle<T>> idle = new ArrayDeque<>();
+
+    final private AtomicLong acquired = new AtomicLong();
+    final private AtomicLong created = new AtomicLong();
+    final private AtomicLong destroyed = new AtomicLong();
+    final private AtomicLong discarded = new AtomicLong();
+    final private AtomicLong totalCreateNanos = new AtomicLong();
+    final private AtomicLong totalDestroyNanos = new AtomicLong();
+    final private AtomicLong totalAcquireNanos = new AtomicLong();
+
+    public ObjectPool(@NonNull final Factory<T> factory, final int capacity, final long maxIdleMs) {
+        this.factory = factory;
+        this.capacity = capacity;
+        this.maxIdleNanos = maxIdleMs * 1000000L;
+    }
+
+    @NonNull
+    public T acquire() {
+        final long start = System.nanoTime();
+        trim(start);
+        Idle<T> reused;
+        synchronized (idle) {
+            reused = idle.pollLast();
+        }
+        final T object = reused == null ? create() : reused.object;
+        acquired.incrementAndGet();
+        totalAcquireNanos.addAndGet(System.nanoTime() - start);
+        return object;
+    }
+
+    public void release(@NonNull final T object) {
+        final long now = System.nanoTime();
+        boolean kept = false;
+        synchronized (idle) {
+            if (idle.size() < capacity) {
+                idle.addLast(new Idle<>(object, now));
+                kept = true;
+            }
+        }
+        if (!kept) destroy(object);
+        trim(now);
+    }
+
+    // For an object whose last call threw
+    public void discard(@NonNull final T object) {
+        discarded.incrementAndGet();
+        destroy(object);
+    }
+
+    public void clear() {
+        while (true) {
+            final Idle<T> entry;
+            synchronized (idle) {
+                entry = idle.pollFirst();
+            }
+            if (entry == null) return;
+            destroy(entry.object);
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        final long acquires = acquired.get();
+        final long creates = created.get();
+        final long destroys = destroyed.get();
+        final long averageCreate = creates == 0 ? 0 : totalCreateNanos.get() / creates;
+        final long averageDestroy = destroys == 0 ? 0 : totalDestroyNanos.get() / destroys;
+        final Map<String, Object> metrics = new HashMap<>();
+        synchronized (idle) {
+            metrics.put("idle", idle.size());
+        }
+        metrics.put("acquired", acquires);
+        metrics.put("created", creates);
+        metrics.put("destroyed", destroys);
+        metrics.put("discarded", discarded.get());
+        metrics.put("averageCreateMicros", averageCreate / 1000);
+        metrics.put("averageDestroyMicros", averageDestroy / 1000);
+        // pooled: what acquire() actually cost, unpooled: a create and destroy per call
+        metrics.put("averagePooledMicros", acquires == 0 ? 0 : totalAcquireNanos.get() / acquires / 1000);
+        metrics.put("averageUnpooledMicros", (averageCreate + averageDestroy) / 1000);
+        metrics.put("savedMicros", (acquires - creates) * (averageCreate + averageDestroy) / 1000);
+        return metrics;
+    }
+
+    private T create() {
+        final long start = System.nanoTime();
+        final T object = factory.create();
+        totalCreateNanos.addAndGet(System.nanoTime() - start);
+        created.incrementAndGet();
+        return object;
+    }
+
+    private void destroy(final T object) {
+        final long start = System.nanoTime();
+        try {
+            factory.destroy(object);
+        } finally {
+            totalDestroyNanos.addAndGet(System.nanoTime() - start);
+            destroyed.incrementAndGet();
+        }
+    }
+
+    private void trim(final long now) {
+        while (true) {
+            final Idle<T> entry;
+            synchronized (idle) {
+                final Idle<T> oldest = idle.peekFirst();
+                if (oldest == null || now - oldest.since < maxIdleNanos) return;
+                entry = idle.pollFirst();
+            }
+            destroy(entry.object);
+        }
+    }
+
+    static private final class Idle<T> {
+        final T object;
+        final long since;
+
+        Idle(final T object, final long since) {
+            this.object = object;
+            this.since = since;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.johngu.music;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.palette.graphics.Palette;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import io.flutter.Log;
+
+// Palette swatches of artwork, computed once per distinct image.
+// Requests are keyed by a hash of the artwork bytes: identical artwork
+// in flight is computed once for every waiting token, results are kept
+// in memory and in the app cache dir, and the bitmap is decoded with
+// inSampleSize close to the size Palette samples at anyway.
+public final class PaletteService {
+    static private final int TARGET_SIZE = 128;
+    static private final int MEMORY_CACHE_ENTRIES = 256;
+
+    // Order of the swatch values in the cached int[], after the presence mask
+    static private final String[] KEYS = {
+            "Dominant", "DominantTitleText",
+            "Vibrant", "VibrantTitleText",
+            "Muted", "MutedTitleText",
+            "LightVibrant", "LightMuted",
+            "DarkVibrant", "DarkMuted"};
+
+    static private PaletteService instance;
+
+    static public synchronized PaletteService getInstance(@NonNull final Context context) {
+        if (instance == null) {
+            instance = new PaletteService(new File(context.getCacheDir(), "palette"));
+        }
+        return instance;
+    }
+
+    final private File directory;
+    final private LruCache<String, int[]> memoryCache = new LruCache<>(MEMORY_CACHE_ENTRIES);
+    // hash -> tokens waiting for it
+    final private Map<String, List<Integer>> inFlight = new HashMap<>();
+
+    PaletteService(@NonNull final File directory) {
+        this.directory = directory;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.d("PaletteService", "Failed to create " + directory);
+        }
+    }
+
+    public void request(@NonNull final byte[] data,
+                        final int token,
+                        final int priority,
+                        @NonNull final PriorityTaskExecutor executor) {
+        executor.execute(token, priority, () -> resolve(hash(data), token, () -> data), () -> postCancelled(token));
+    }
+
+    // Same swatches for the artwork embedded in [filePath], computed from the
+    // small cached thumbnail so the artwork never has to cross the channel.
+    public void requestForFile(@NonNull final Context context,
+                               @NonNull final String filePath,
+                               final int token,
+                               final int priority,
+                               @NonNull final PriorityTaskExecutor executor) {
+        executor.execute(token, priority, () -> {
+            final String key = "file-" + hash((filePath + '\n' + new File(filePath).lastModified())
+                    .getBytes(Charset.forName("UTF-8")));
+            resolve(key, token, () -> ArtworkCache.getInstance(context).getThumbnail(filePath, ArtworkCache.SIZE_SMALL));
+        }, () -> postCancelled(token));
+    }
+
+    // Drops a request Dart gave up on, whether it is still queued or waiting
+    // on an identical artwork in flight. Dart receives a cancelled message.
+    public boolean cancel(final int token, @NonNull final PriorityTaskExecutor executor) {
+        if (executor.cancel(token)) return true;
+        synchronized (inFlight) {
+            for (final List<Integer> tokens : inFlight.values()) {
+                // the first token is the one computing, it still posts
+                if (tokens.indexOf(token) > 0) {
+                    tokens.remove(Integer.valueOf(token));
+                    postCancelled(token);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void resolve(final String hash, final int token, final Callable<byte[]> source) {
+        final int[] cached = memoryCache.get(hash);
+        if (cached != null) {
+            post(cached, token);
+            return;
+        }
+        synchronized (inFlight) {
+            final List<Integer> waiting = inFlight.get(hash);
+            if (waiting != null) {
+                waiting.add(token);
+                return;
+            }
+            final List<Integer> tokens = new ArrayList<>();
+            tokens.add(token);
+            inFlight.put(hash, tokens);
+        }
+
+        int[] swatches = null;
+        try {
+            swatches = readDisk(hash);
+            if (swatches == null) {
+                final byte[] data = source.call();
+                swatches = data == null ? new int[KEYS.length + 1] : generate(data);
+                writeDisk(hash, swatches);
+            }
+            memoryCache.put(hash, swatches);
+        } catch (Exception e) {
+            Log.d("PaletteService", "Failed to generate palette " + e);
+        } finally {
+            final List<Integer> tokens;
+            synchronized (inFlight) {
+                tokens = inFlight.remove(hash);
+            }
+            // a failed palette still answers, Dart waits on every token
+            for (final int waiting : tokens) {
+                if (swatches != null) post(swatches, waiting);
+                else postCancelled(waiting);
+            }
+        }
+    }
+
+    static private void postCancelled(final int token) {
+        final Map<String, Object> info = new HashMap<>();
+        info.put("token", token);
+        info.put("cancelled", true);
+        Constants.MainThread.post(() ->
+                Constants.NativeMethodChannel.invokeMethod("Palette", info));
+    }
+
+    static private void post(final int[] swatches, final int token) {
+        final Map<String, Object> info = new HashMap<>();
+        info.put("token", token);
+        final int mask = swatches[0];
+        for (int i = 0; i < KEYS.length; i++) {
+            info.put(KEYS[i], (mask & (1 << i)) == 0 ? null : swatches[i + 1]);
+        }
+        Constants.MainThread.post(() ->
+                Constants.NativeMethodChannel.invokeMethod("Palette", info));
+    }
+
+    // [mask, value...] with bit i of mask set when KEYS[i] has a value
+    static int[] generate(@NonNull final byte[] data) {
+        final int[] swatches = new int[KEYS.length + 1];
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        options.inSampleSize = Constants.calculateInSampleSize(options, TARGET_SIZE, TARGET_SIZE);
+        options.inJustDecodeBounds = false;
+        final Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (bitmap == null) return swatches;
+
+        final Palette palette = new Palette.Builder(bitmap).generate();
+        bitmap.recycle();
+        final Palette.Swatch[] sources = {
+                palette.getDominantSwatch(), palette.getDominantSwatch(),
+                palette.getVibrantSwatch(), palette.getVibrantSwatch(),
+                palette.getMutedSwatch(), palette.getMutedSwatch(),
+                palette.getLightVibrantSwatch(), palette.getLightMutedSwatch(),
+                palette.getDarkVibrantSwatch(), palette.getDarkMutedSwatch()};
+        for (int i = 0; i < sources.length; i++) {
+            final Palette.Swatch swatch = sources[i];
+            if (swatch == null) continue;
+            swatches[0] |= 1 << i;
+            swatches[i + 1] = KEYS[i].endsWith("TitleText") ? swatch.getTitleTextColor() : swatch.getRgb();
+        }
+        return swatches;
+    }
+
+    @Nullable
+    private int[] readDisk(final String hash) {
+        final File file = new File(directory, hash);
+        if (!file.isFile()) return null;
+        try (final DataInputStream inputStream = new DataInputStream(new FileInputStream(file))) {
+            final int[] swatches = new int[KEYS.length + 1];
+            for (int i = 0; i < swatches.length; i++) swatches[i] = inputStream.readInt();
+            return swatches;
+        } catch (IOException e) {
+            file.delete();
+            return null;
+        }
+    }
+
+    private void writeDisk(final String hash, final int[] swatches) {
+        final File tmp = new File(directory, hash + ".tmp");
+        try (final DataOutputStream outputStream = new DataOutputStream(new FileOutputStream(tmp))) {
+            for (final int value : swatches) outputStream.writeInt(value);
+        } catch (IOException e) {
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(new File(directory, hash))) tmp.delete();
+    }
+
+    static String hash(@NonNull final byte[] data) {
+        try {
+            final byte[] hash = MessageDigest.getInstance("MD5").digest(data);
+            return Constants.toHexString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.johngu.music;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Worker pool that runs higher priority tasks first, lets Dart drop queued work
+// by token and keeps queue wait / execution latency counters.
+// With a capacity the lowest priority, least wanted task is dropped once the
+// queue is full; in LIFO mode the newest task of a priority runs first, which
+// suits requests for whatever is on screen right now.
+public final class PriorityTaskExecutor implements Executor {
+    static public final int PRIORITY_LOW = 0;
+    static public final int PRIORITY_NORMAL = 1;
+    static public final int PRIORITY_HIGH = 2;
+
+    final private ThreadPoolExecutor threadPoolExecutor;
+    final private int capacity;
+    final private boolean lifo;
+    final private Map<Integer, Task> pending = new ConcurrentHashMap<>();
+    final private AtomicLong sequence = new AtomicLong();
+
+    final private AtomicLong executed = new AtomicLong();
+    final private AtomicLong cancelled = new AtomicLong();
+    final private AtomicLong dropped = new AtomicLong();
+    final private AtomicLong totalWaitNanos = new AtomicLong();
+    final private AtomicLong maxWaitNanos = new AtomicLong();
+    final private AtomicLong totalRunNanos = new AtomicLong();
+    final private AtomicLong maxRunNanos = new AtomicLong();
+
+    public PriorityTaskExecutor(final int threads, @NonNull final ThreadFactory threadFactory) {
+        this(threads, threadFactory, 0, false);
+    }
+
+    // [capacity] 0 means unbounded
+    public PriorityTaskExecutor(final int threads,
+                                @NonNull final ThreadFactory threadFactory,
+                                final int capacity,
+                                final boolean lifo) {
+        this.capacity = capacity;
+        this.lifo = lifo;
+        threadPoolExecutor = new ThreadPoolExecutor(threads,
+                threads, 1,
+                TimeUnit.MINUTES,
+                new PriorityBlockingQueue<>(),
+                threadFactory);
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void execute(@NonNull final Runnable command) {
+        execute(null, PRIORITY_LOW, command, null);
+    }
+
+    public void execute(@Nullable final Integer token,
+                        final int priority,
+                        @NonNull final Runnable command,
+                        @Nullable final Runnable onCancel) {
+        final Task task = new Task(token, priority, sequence.getAndIncrement(), command, onCancel);
+        if (token != null) {
+            final Task previous = pending.put(token, task);
+            if (previous != null) previous.cancel();
+        }
+        threadPoolExecutor.execute(task);
+        if (capacity > 0 && threadPoolExecutor.getQueue().size() > capacity) dropLeastWanted();
+    }
+
+    private void dropLeastWanted() {
+        Task worst = null;
+        for (final Runnable runnable : threadPoolExecutor.getQueue()) {
+            final Task task = (Task) runnable;
+            if (worst == null || task.compareTo(worst) > 0) worst = task;
+        }
+        if (worst != null && threadPoolExecutor.remove(worst)) {
+            if (worst.token != null) pending.remove(worst.token, worst);
+            dropped.incrementAndGet();
+            if (worst.onCancel != null) worst.onCancel.run();
+        }
+    }
+
+    // Drops the queued task for [token]. A task that already started runs to completion.
+    public boolean cancel(final int token) {
+        final Task task = pending.remove(token);
+        return task != null && task.cancel();
+    }
+
+    public Map<String, Object> getMetrics() {
+        final long count = executed.get();
+        final Map<String, Object> metrics = new HashMap<>();
+        metrics.put("queued", threadPoolExecutor.getQueue().size());
+        metrics.put("executed", count);
+        metrics.put("cancelled", cancelled.get());
+        metrics.put("dropped", dropped.get());
+        metrics.put("averageWaitMicros", count == 0 ? 0 : totalWaitNanos.get() / count / 1000);
+        metrics.put("maxWaitMicros", maxWaitNanos.get() / 1000);
+        metrics.put("averageRunMicros", count == 0 ? 0 : totalRunNanos.get() / count / 1000);
+        metrics.put("maxRunMicros", maxRunNanos.get() / 1000);
+        return metrics;
+    }
+
+    public void shutdownNow() {
+        threadPoolExecutor.shutdownNow();
+    }
+
+    static private void updateMax(final AtomicLong max, final long value) {
+        long current;
+        do {
+            current = max.get();
+        } while (value > current && !max.compareAndSet(current, value));
+    }
+
+    private final class Task implements Runnable, Comparable<Task> {
+        final Integer token;
+        final int priority;
+        final long sequence;
+        final Runnable command;
+        final Runnable onCancel;
+        final long enqueueNanos;
+
+        Task(final Integer token, final int priority, final long sequence,
+             final Runnable command, final Runnable onCancel) {
+            this.token = token;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.command = command;
+            this.onCancel = onCancel;
+            this.enqueueNanos = System.nanoTime();
+        }
+
+        final boolean cancel() {
+            if (!threadPoolExecutor.remove(this)) return false;
+            cancelled.incrementAndGet();
+            if (onCancel != null) onCancel.run();
+            return true;
+        }
+
+        @Override
+        public void run() {
+            if (token != null) pending.remove(token, this);
+            final long start = System.nanoTime();
+            final long wait = start - enqueueNanos;
+            try {
+                command.run();
+            } finally {
+                final long run = System.nanoTime() - start;
+                executed.incrementAndGet();
+                totalWaitNanos.addAndGet(wait);
+                totalRunNanos.addAndGet(run);
+                updateMax(maxWaitNanos, wait);
+                updateMax(maxRunNanos, run);
+            }
+        }
+
+        @Override
+        public int compareTo(final Task other) {
+            if (priority != other.priority) return priority > other.priority ? -1 : 1;
+            return lifo ? Long.compare(other.sequence, sequence) : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.johngu.music.Service;
+
+import android.media.AudioAttributes;
+import android.media.AudioFocusRequest;
+import android.media.AudioManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import java.util.Map;
+
+// Keeps track of the audio focus the service holds so play / pause do not
+// cost an abandon + request binder round trip each. Focus is requested only
+// when it is not owned, is kept across a pause and given back once playback
+// stayed paused for IDLE_RELEASE_MS. When to ask the system is decided by
+// AudioFocusState: play during a call asks again instead of talking over it.
+// Ducking ramps a gain the service
+// applies on top of its volume instead of stepping the volume down.
+final class AudioFocusManager implements AudioManager.OnAudioFocusChangeListener {
+    static private final int IDLE_RELEASE_MS = 30 * 1000;
+    static private final int RAMP_MS = 300;
+    static private final int RAMP_STEP_MS = 16;
+    static private final float DUCK_GAIN = 0.2f;
+
+    interface Listener {
+        // Focus left for a phone call, another player... [transientLoss] when it is expected back
+        void onFocusLost(boolean transientLoss);
+
+        void onFocusGained();
+
+        // Called on the handler thread at every ramp step
+        void onGainChanged(float gain);
+    }
+
+    final private AudioManager audioManager;
+    final private Handler handler;
+    final private Listener listener;
+    final private AudioFocusState state;
+    private AudioFocusRequest audioFocusRequest;
+
+    // ducking gain, touched on the handler thread only
+    private float gain = 1.f;
+    private float rampFrom = 1.f;
+    private float rampTo = 1.f;
+    private long rampStart = 0;
+
+    final private Runnable ramp = new Runnable() {
+        @Override
+        public void run() {
+            final float progress = Math.min(1.f, (SystemClock.uptimeMillis() - rampStart) / (float) RAMP_MS);
+            gain = rampFrom + (rampTo - rampFrom) * progress;
+            listener.onGainChanged(gain);
+            if (progress < 1.f) handler.postDelayed(this, RAMP_STEP_MS);
+        }
+    };
+
+    final private Runnable idleRelease = this::abandon;
+
+    AudioFocusManager(@NonNull final AudioManager audioManager,
+                      final AudioAttributes audioAttributes,
+                      @NonNull final Handler handler,
+                      @NonNull final Listener listener) {
+        this.audioManager = audioManager;
+        this.handler = handler;
+        this.listener = listener;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            audioFocusRequest = new AudioFocusRequest.Builder(AudioManager.AUDIOFOCUS_GAIN)
+                    .setAudioAttributes(audioAttributes)
+                    .setAcceptsDelayedFocusGain(true)
+                    .setWillPauseWhenDucked(true)
+                    .setOnAudioFocusChangeListener(this, handler)
+                    .build();
+        }
+        state = new AudioFocusState(new AudioFocusState.System() {
+            @Override
+            public int request() {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                    return audioManager.requestAudioFocus(audioFocusRequest);
+                }
+                return audioManager.requestAudioFocus(AudioFocusManager.this,
+                        AudioManager.STREAM_MUSIC, AudioManager.AUDIOFOCUS_GAIN);
+            }
+
+            @Override
+            public void abandon() {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                    audioManager.abandonAudioFocusRequest(audioFocusRequest);
+                } else {
+                    audioManager.abandonAudioFocus(AudioFocusManager.this);
+                }
+            }
+        });
+    }
+
+    // AUDIOFOCUS_REQUEST_GRANTED / FAILED / DELAYED, without IPC while focus is owned
+    int request() {
+        handler.removeCallbacks(idleRelease);
+        return state.request();
+    }
+
+    // Playback paused by the user, give focus back unless it resumes soon
+    void releaseWhenIdle() {
+        handler.removeCallbacks(idleRelease);
+        handler.postDelayed(idleRelease, IDLE_RELEASE_MS);
+    }
+
+    void abandon() {
+        handler.removeCallbacks(idleRelease);
+        state.abandon();
+    }
+
+    Map<String, Object> getStats() {
+        return state.getStats();
+    }
+
+    private void rampTo(final float target) {
+        handler.removeCallbacks(ramp);
+        rampFrom = gain;
+        rampTo = target;
+        rampStart = SystemClock.uptimeMillis();
+        ramp.run();
+    }
+
+    @Override
+    public void onAudioFocusChange(final int focusChange) {
+        switch (focusChange) {
+            case AudioManager.AUDIOFOCUS_LOSS:
+                // permanent, the request is gone from the focus stack
+                state.onLoss(false);
+                listener.onFocusLost(false);
+                break;
+
+            case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT:
+                state.onLoss(true);
+                listener.onFocusLost(true);
+                break;
+
+            case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK:
+                rampTo(DUCK_GAIN);
+                break;
+
+            case AudioManager.AUDIOFOCUS_GAIN_TRANSIENT_EXCLUSIVE:
+            case AudioManager.AUDIOFOCUS_GAIN_TRANSIENT:
+            case AudioManager.AUDIOFOCUS_GAIN:
+                state.onGain();
+                rampTo(1.f);
+                listener.onFocusGained();
+                break;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.johngu.music.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// When AudioFocusManager asks the system for focus and when it answers from
+// memory, kept free of android.* so the stress run drives the same decisions.
+// Two flags: [registered], the request sits in the focus stack and abandon()
+// has something to give back, and [owned], focus is ours right now. A
+// transient loss keeps the first and clears the second, so a request during
+// a call goes to the system instead of being granted from memory.
+final class AudioFocusState {
+    // Same values as AudioManager.AUDIOFOCUS_REQUEST_*
+    static final int REQUEST_FAILED = 0;
+    static final int REQUEST_GRANTED = 1;
+    static final int REQUEST_DELAYED = 2;
+
+    // The binder calls, made while the state's monitor is held
+    interface System {
+        int request();
+
+        void abandon();
+    }
+
+    final private System system;
+
+    private boolean registered = false;
+    private boolean owned = false;
+    private long requests = 0;
+    private long abandons = 0;
+    private long skipped = 0;
+
+    AudioFocusState(final System system) {
+        this.system = system;
+    }
+
+    // REQUEST_GRANTED / FAILED / DELAYED, without IPC while focus is owned
+    synchronized int request() {
+        if (owned) {
+            skipped++;
+            return REQUEST_GRANTED;
+        }
+        requests++;
+        final int result = system.request();
+        if (result == REQUEST_GRANTED) {
+            registered = true;
+            owned = true;
+        } else if (result == REQUEST_DELAYED) {
+            // waits in the stack, onGain() follows once the holder is done
+            registered = true;
+        }
+        return result;
+    }
+
+    synchronized void abandon() {
+        if (!registered) return;
+        abandons++;
+        system.abandon();
+        registered = false;
+        owned = false;
+    }
+
+    // [transientLoss] leaves the request in the stack, the gain comes back to it
+    synchronized void onLoss(final boolean transientLoss) {
+        if (!transientLoss) registered = false;
+        owned = false;
+    }
+
+    synchronized void onGain() {
+        registered = true;
+        owned = true;
+    }
+
+    synchronized boolean isRegistered() {
+        return registered;
+    }
+
+    synchronized boolean isOwned() {
+        return owned;
+    }
+
+    synchronized Map<String, Object> getStats() {
+        final Map<String, Object> stats = new HashMap<>();
+        stats.put("registered", registered);
+        stats.put("owned", owned);
+        stats.put("requests", requests);
+        stats.put("abandons", abandons);
+        stats.put("skipped", skipped);
+        return stats;
+    }
+}
@@ -0,0 +1,136 @@
+package com.johngu.music.Service;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+// Decoded notification artwork. Evicted bitmaps go to a small pool and are
+// handed to BitmapFactory as inBitmap so skipping through a playlist decodes
+// into recycled buffers instead of allocating a new one per track.
+// The pinned bitmap is the one the notification / MediaSession currently shows
+// and is never reused while pinned.
+final class BitmapCache {
+    static private final int MAX_POOL_SIZE = 4;
+
+    final private LruCache<String, Bitmap> cache;
+    final private ArrayDeque<Bitmap> pool = new ArrayDeque<>(MAX_POOL_SIZE);
+    private Bitmap pinned;
+    private int reused = 0;
+
+    BitmapCache(final int maxBytes) {
+        cache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getRowBytes() * value.getHeight();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                if (oldValue != newValue) recycle(oldValue);
+            }
+        };
+    }
+
+    @Nullable
+    final Bitmap get(@NonNull final String key) {
+        return cache.get(key);
+    }
+
+    final void put(@NonNull final String key, @NonNull final Bitmap bitmap) {
+        cache.put(key, bitmap);
+    }
+
+    @Nullable
+    final Bitmap decode(@NonNull final String key, @NonNull final byte[] bytes) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        options.inJustDecodeBounds = false;
+        options.inMutable = true;
+        options.inSampleSize = 1;
+        options.inBitmap = takeReusable(options);
+
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        } catch (IllegalArgumentException e) {
+            // inBitmap rejected by the decoder, fall back to a fresh allocation
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        }
+        if (bitmap == null) return null;
+        if (options.inBitmap != null && options.inBitmap == bitmap) {
+            synchronized (this) {
+                reused++;
+            }
+        }
+        cache.put(key, bitmap);
+        return bitmap;
+    }
+
+    // Marks [bitmap] as shown; the previously pinned bitmap becomes reusable once evicted.
+    final synchronized void pin(@Nullable final Bitmap bitmap) {
+        final Bitmap previous = pinned;
+        pinned = bitmap;
+        if (previous != null && previous != bitmap && !cache.snapshot().containsValue(previous)) {
+            recycle(previous);
+        }
+    }
+
+    final synchronized Map<String, Object> getStats() {
+        final Map<String, Object> stats = new HashMap<>();
+        stats.put("hit", cache.hitCount());
+        stats.put("miss", cache.missCount());
+        stats.put("eviction", cache.evictionCount());
+        stats.put("reused", reused);
+        stats.put("pool", pool.size());
+        stats.put("bytes", cache.size());
+        return stats;
+    }
+
+    final void clear() {
+        cache.evictAll();
+        synchronized (this) {
+            pool.clear();
+        }
+    }
+
+    private synchronized void recycle(final Bitmap bitmap) {
+        if (bitmap == pinned || !bitmap.isMutable()) return;
+        if (pool.size() >= MAX_POOL_SIZE) pool.pollFirst();
+        pool.addLast(bitmap);
+    }
+
+    @Nullable
+    private synchronized Bitmap takeReusable(final BitmapFactory.Options options) {
+        final Iterator<Bitmap> iterator = pool.iterator();
+        while (iterator.hasNext()) {
+            final Bitmap candidate = iterator.next();
+            if (canUseForInBitmap(candidate, options)) {
+                iterator.remove();
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    static private boolean canUseForInBitmap(final Bitmap candidate, final BitmapFactory.Options options) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            final int width = options.outWidth / options.inSampleSize;
+            final int height = options.outHeight / options.inSampleSize;
+            return width * height * 4 <= candidate.getAllocationByteCount();
+        }
+        return candidate.getWidth() == options.outWidth
+                && candidate.getHeight() == options.outHeight
+                && options.inSampleSize == 1;
+    }
+}
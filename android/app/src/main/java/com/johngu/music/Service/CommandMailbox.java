@@ -0,0 +1,265 @@
+package com.johngu.music.Service;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Work queue of the MediaService executor. Player commands that are superseded
+// by a newer one are dropped when the newer one is offered:
+// - only the latest seek for a data source is kept
+// - only the latest play / pause for a data source is kept, the last toggle decides the state
+// - a reset / setDataSource drops everything queued for another data source,
+//   those commands would be skipped by MediaPlayerRunnable anyway
+// Other runnables are queued as is.
+final class CommandMailbox extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+    static final int KIND_OTHER = 0;
+    static final int KIND_PLAY = 1;
+    static final int KIND_PAUSE = 2;
+    static final int KIND_SEEK = 3;
+    static final int KIND_RESET = 4;
+    static final int KIND_SET_DATA_SOURCE = 5;
+
+    interface Command extends Runnable {
+        int getKind();
+
+        String getDataSource();
+    }
+
+    final private ArrayDeque<Runnable> queue = new ArrayDeque<>();
+    final private ReentrantLock lock = new ReentrantLock();
+    final private Condition notEmpty = lock.newCondition();
+
+    private long enqueued = 0;
+    private long dropped = 0;
+    private int maxDepth = 0;
+
+    @Override
+    public boolean offer(final Runnable runnable) {
+        if (runnable == null) throw new NullPointerException();
+        lock.lock();
+        try {
+            if (runnable instanceof Command) coalesce((Command) runnable);
+            queue.addLast(runnable);
+            enqueued++;
+            if (queue.size() > maxDepth) maxDepth = queue.size();
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void coalesce(final Command command) {
+        final int kind = command.getKind();
+        if (kind == KIND_OTHER) return;
+        final String dataSource = command.getDataSource();
+        final Iterator<Runnable> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            final Runnable runnable = iterator.next();
+            if (!(runnable instanceof Command)) continue;
+            final Command pending = (Command) runnable;
+            final boolean sameSource = equals(dataSource, pending.getDataSource());
+            final boolean superseded;
+            switch (kind) {
+                case KIND_SEEK:
+                    superseded = sameSource && pending.getKind() == KIND_SEEK;
+                    break;
+                case KIND_PLAY:
+                case KIND_PAUSE:
+                    superseded = sameSource
+                            && (pending.getKind() == KIND_PLAY || pending.getKind() == KIND_PAUSE);
+                    break;
+                case KIND_RESET:
+                case KIND_SET_DATA_SOURCE:
+                    superseded = !sameSource;
+                    break;
+                default:
+                    superseded = false;
+            }
+            if (superseded) {
+                iterator.remove();
+                dropped++;
+            }
+        }
+    }
+
+    static private boolean equals(final String a, final String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    final Map<String, Object> getStats() {
+        lock.lock();
+        try {
+            final Map<String, Object> stats = new HashMap<>();
+            stats.put("depth", queue.size());
+            stats.put("maxDepth", maxDepth);
+            stats.put("enqueued", enqueued);
+            stats.put("dropped", dropped);
+            return stats;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(final Runnable runnable) {
+        offer(runnable);
+    }
+
+    @Override
+    public boolean offer(final Runnable runnable, final long timeout, final TimeUnit unit) {
+        return offer(runnable);
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return queue.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (queue.isEmpty()) notEmpty.await();
+            return queue.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (queue.isEmpty()) {
+                if (nanos <= 0) return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return queue.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            return queue.peekFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public boolean remove(final Object o) {
+        lock.lock();
+        try {
+            return queue.remove(o);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Object[] toArray() {
+        lock.lock();
+        try {
+            return queue.toArray();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public <T> T[] toArray(final T[] a) {
+        lock.lock();
+        try {
+            return queue.toArray(a);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(final Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(final Collection<? super Runnable> c, final int maxElements) {
+        lock.lock();
+        try {
+            int count = 0;
+            while (count < maxElements && !queue.isEmpty()) {
+                c.add(queue.pollFirst());
+                count++;
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Iterates over a snapshot, removal goes through remove(Object)
+    @Override
+    public Iterator<Runnable> iterator() {
+        final Iterator<Runnable> snapshot;
+        lock.lock();
+        try {
+            snapshot = new ArrayList<>(queue).iterator();
+        } finally {
+            lock.unlock();
+        }
+        return new Iterator<Runnable>() {
+            private Runnable current;
+
+            @Override
+            public boolean hasNext() {
+                return snapshot.hasNext();
+            }
+
+            @Override
+            public Runnable next() {
+                current = snapshot.next();
+                return current;
+            }
+
+            @Override
+            public void remove() {
+                if (current == null) throw new IllegalStateException();
+                CommandMailbox.this.remove(current);
+                current = null;
+            }
+        };
+    }
+}
@@ -0,0 +1,196 @@
+package com.johngu.music.Service;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.johngu.music.Constants;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.flutter.plugin.common.MethodChannel;
+
+// Single way out for MediaService events to Dart. Events from any thread are
+// queued and flushed once per frame on the platform thread: one event goes out
+// as its own method call, several as one "Batch" call carrying
+// [method, arguments, method, arguments...]. Binary state messages share the
+// queue and go out on the "MediaPlayer/state" channel between the method calls
+// around them, so Dart sees e.g. the switch to a new track before its state.
+// Latest-wins events (buffering, seek completion) drop their queued
+// predecessor. While Dart has not answered the previous calls the queue is
+// held back, so a busy isolate is not flooded, unless the answer is overdue by
+// STALE_MS.
+final class EventDispatcher implements Choreographer.FrameCallback {
+    static final String BATCH = "Batch";
+    static private final int STALE_MS = 500;
+    // method slot of a binary state message in [pending]
+    static private final Object STATE_MESSAGE = new Object();
+
+    final private Handler handler;
+    // flat [method, arguments...], guarded by itself
+    final private List<Object> pending = new ArrayList<>();
+    private boolean scheduled = false;
+    private long inFlightSince = 0;
+    // method calls Dart has not answered yet
+    private int awaiting = 0;
+
+    private long dispatched = 0;
+    private long coalesced = 0;
+    private long deferred = 0;
+    private long sent = 0;
+    private long batches = 0;
+    private int maxBatch = 0;
+
+    final private Runnable schedule = () -> Choreographer.getInstance().postFrameCallback(this);
+    // flushes anyway once the answer is overdue
+    final private Runnable stale = () -> {
+        synchronized (pending) {
+            if (!pending.isEmpty()) scheduleLocked();
+        }
+    };
+
+    final private MethodChannel.Result answer = new MethodChannel.Result() {
+        @Override
+        public void success(@Nullable Object result) {
+            answered();
+        }
+
+        @Override
+        public void error(String errorCode, @Nullable String errorMessage, @Nullable Object errorDetails) {
+            answered();
+        }
+
+        @Override
+        public void notImplemented() {
+            answered();
+        }
+    };
+
+    EventDispatcher(@NonNull final Handler handler) {
+        this.handler = handler;
+    }
+
+    void dispatch(@NonNull final String method, @Nullable final Object arguments) {
+        synchronized (pending) {
+            dispatched++;
+            pending.add(method);
+            pending.add(arguments);
+            scheduleLocked();
+        }
+    }
+
+    // A StateEventCodec message, ordered with the method events
+    void dispatchState(@NonNull final ByteBuffer message) {
+        synchronized (pending) {
+            dispatched++;
+            pending.add(STATE_MESSAGE);
+            pending.add(message);
+            scheduleLocked();
+        }
+    }
+
+    // Drops a queued event of the same [method], the new one keeps its place in order
+    void dispatchLatest(@NonNull final String method, @Nullable final Object arguments) {
+        synchronized (pending) {
+            dispatched++;
+            for (int i = 0; i < pending.size(); i += 2) {
+                if (method.equals(pending.get(i))) {
+                    pending.subList(i, i + 2).clear();
+                    coalesced++;
+                    break;
+                }
+            }
+            pending.add(method);
+            pending.add(arguments);
+            scheduleLocked();
+        }
+    }
+
+    Map<String, Object> getStats() {
+        final Map<String, Object> stats = new HashMap<>();
+        synchronized (pending) {
+            stats.put("dispatched", dispatched);
+            stats.put("coalesced", coalesced);
+            stats.put("deferred", deferred);
+            stats.put("sent", sent);
+            stats.put("batches", batches);
+            stats.put("maxBatch", maxBatch);
+            stats.put("pending", pending.size() / 2);
+        }
+        return stats;
+    }
+
+    private void scheduleLocked() {
+        if (scheduled) return;
+        scheduled = true;
+        handler.post(schedule);
+    }
+
+    private void answered() {
+        synchronized (pending) {
+            if (awaiting > 0) awaiting--;
+            if (awaiting > 0) return;
+            handler.removeCallbacks(stale);
+            inFlightSince = 0;
+            if (!pending.isEmpty()) scheduleLocked();
+        }
+    }
+
+    // Platform thread
+    @Override
+    public void doFrame(final long frameTimeNanos) {
+        final List<Object> events;
+        synchronized (pending) {
+            scheduled = false;
+            if (pending.isEmpty()) return;
+            final long waited = SystemClock.uptimeMillis() - inFlightSince;
+            if (inFlightSince != 0 && waited < STALE_MS) {
+                // answered() schedules again, the queue keeps coalescing meanwhile
+                deferred++;
+                handler.removeCallbacks(stale);
+                handler.postDelayed(stale, STALE_MS - waited);
+                return;
+            }
+            events = new ArrayList<>(pending);
+            pending.clear();
+            int calls = 0;
+            int from = 0;
+            for (int i = 0; i <= events.size(); i += 2) {
+                if (i < events.size() && events.get(i) != STATE_MESSAGE) continue;
+                if (i > from) calls++;
+                from = i + 2;
+            }
+            awaiting += calls;
+            if (calls > 0) inFlightSince = SystemClock.uptimeMillis();
+            final int size = events.size() / 2;
+            sent += size;
+            batches++;
+            if (size > maxBatch) maxBatch = size;
+        }
+        // method events up to each state message, then the message itself
+        int from = 0;
+        for (int i = 0; i <= events.size(); i += 2) {
+            if (i < events.size() && events.get(i) != STATE_MESSAGE) continue;
+            invoke(events.subList(from, i));
+            if (i < events.size()) Constants.MediaPlayerStateChannel.send((ByteBuffer) events.get(i + 1));
+            from = i + 2;
+        }
+    }
+
+    private void invoke(final List<Object> events) {
+        if (events.isEmpty()) return;
+        final MethodChannel channel = Constants.MediaPlayerMethodChannel;
+        if (events.size() == 2) {
+            channel.invokeMethod((String) events.get(0), events.get(1), answer);
+        } else {
+            channel.invokeMethod(BATCH, new ArrayList<>(events), answer);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.johngu.music.Service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Log-linear histogram of microsecond latencies in the spirit of HdrHistogram:
+// below SUB_BUCKETS every value has its own bucket, above it every power of
+// two is split into SUB_BUCKETS / 2 linear buckets, so a recorded value is off
+// by less than 2 / SUB_BUCKETS (~3%). Values from 2^27 us (~134 s) on land in
+// the last bucket. record() is lock free and allocates nothing.
+final class LatencyHistogram {
+    static private final int SUB_BUCKET_BITS = 6;
+    static private final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // highest bit of a bucketed value is 26, 2^27 us and above are clamped
+    static private final int MAGNITUDES = 27 - SUB_BUCKET_BITS;
+    static final int BUCKETS = SUB_BUCKETS + MAGNITUDES * (SUB_BUCKETS / 2);
+
+    final private AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    final private AtomicLong count = new AtomicLong();
+    final private AtomicLong total = new AtomicLong();
+    final private AtomicLong max = new AtomicLong();
+
+    void record(long micros) {
+        if (micros < 0) micros = 0;
+        counts.incrementAndGet(bucketOf(micros));
+        count.incrementAndGet();
+        total.addAndGet(micros);
+        long current;
+        do {
+            current = max.get();
+        } while (micros > current && !max.compareAndSet(current, micros));
+    }
+
+    long getCount() {
+        return count.get();
+    }
+
+    long getMean() {
+        final long n = count.get();
+        return n == 0 ? 0 : total.get() / n;
+    }
+
+    long getMax() {
+        return max.get();
+    }
+
+    // Upper bound of the bucket holding the [percentile] (0..100) value
+    long getPercentile(final double percentile) {
+        final long n = count.get();
+        if (n == 0) return 0;
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(upperBoundOf(i), max.get());
+        }
+        return max.get();
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    static int bucketOf(final long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        // position of the highest bit above the linear range
+        final int magnitude = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS + 1;
+        if (magnitude > MAGNITUDES) return BUCKETS - 1;
+        final int sub = (int) (value >>> magnitude) - SUB_BUCKETS / 2;
+        return SUB_BUCKETS + (magnitude - 1) * (SUB_BUCKETS / 2) + sub;
+    }
+
+    static long upperBoundOf(final int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        final int magnitude = (bucket - SUB_BUCKETS) / (SUB_BUCKETS / 2) + 1;
+        final int sub = (bucket - SUB_BUCKETS) % (SUB_BUCKETS / 2) + SUB_BUCKETS / 2;
+        return ((long) (sub + 1) << magnitude) - 1;
+    }
+}
@@ -0,0 +1,124 @@
+package com.johngu.music.Service;
+
+import android.media.MediaPlayer;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+
+// PlayerEngine on the platform MediaPlayer, callbacks come from its looper
+final class MediaPlayerEngine implements PlayerEngine,
+        MediaPlayer.OnPreparedListener,
+        MediaPlayer.OnCompletionListener,
+        MediaPlayer.OnErrorListener,
+        MediaPlayer.OnSeekCompleteListener,
+        MediaPlayer.OnBufferingUpdateListener {
+
+    final MediaPlayer mediaPlayer;
+    final private Listener listener;
+
+    MediaPlayerEngine(@NonNull final MediaPlayer mediaPlayer, @NonNull final Listener listener) {
+        this.mediaPlayer = mediaPlayer;
+        this.listener = listener;
+        mediaPlayer.setOnPreparedListener(this);
+        mediaPlayer.setOnCompletionListener(this);
+        mediaPlayer.setOnErrorListener(this);
+        mediaPlayer.setOnBufferingUpdateListener(this);
+        mediaPlayer.setOnSeekCompleteListener(this);
+    }
+
+    @Override
+    public void setDataSource(final String path) throws IOException {
+        mediaPlayer.setDataSource(path);
+    }
+
+    @Override
+    public void prepareAsync() {
+        mediaPlayer.prepareAsync();
+    }
+
+    @Override
+    public void start() {
+        mediaPlayer.start();
+    }
+
+    @Override
+    public void pause() {
+        mediaPlayer.pause();
+    }
+
+    @Override
+    public void seekTo(final int position) {
+        mediaPlayer.seekTo(position);
+    }
+
+    @Override
+    public void reset() {
+        mediaPlayer.reset();
+    }
+
+    @Override
+    public void release() {
+        mediaPlayer.release();
+    }
+
+    @Override
+    public boolean isPlaying() {
+        return mediaPlayer.isPlaying();
+    }
+
+    @Override
+    public int getCurrentPosition() {
+        return mediaPlayer.getCurrentPosition();
+    }
+
+    @Override
+    public int getDuration() {
+        return mediaPlayer.getDuration();
+    }
+
+    @Override
+    public void setLooping(final boolean looping) {
+        mediaPlayer.setLooping(looping);
+    }
+
+    @Override
+    public boolean isLooping() {
+        return mediaPlayer.isLooping();
+    }
+
+    @Override
+    public void setVolume(final float volume) {
+        mediaPlayer.setVolume(volume, volume);
+    }
+
+    @Override
+    public void setNextEngine(final PlayerEngine next) {
+        mediaPlayer.setNextMediaPlayer(next == null ? null : ((MediaPlayerEngine) next).mediaPlayer);
+    }
+
+    @Override
+    public void onPrepared(final MediaPlayer mp) {
+        listener.onPrepared(this);
+    }
+
+    @Override
+    public void onCompletion(final MediaPlayer mp) {
+        listener.onCompletion(this);
+    }
+
+    @Override
+    public boolean onError(final MediaPlayer mp, final int what, final int extra) {
+        return listener.onError(this, what, extra);
+    }
+
+    @Override
+    public void onSeekComplete(final MediaPlayer mp) {
+        listener.onSeekComplete(this);
+    }
+
+    @Override
+    public void onBufferingUpdate(final MediaPlayer mp, final int percent) {
+        listener.onBufferingUpdate(this, percent);
+    }
+}
@@ -11,12 +11,13 @@ import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.media.AudioAttributes;
-import android.media.AudioFocusRequest;
 import android.media.AudioManager;
 import android.media.MediaMetadata;
 import android.media.MediaPlayer;
 import android.os.Binder;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.PowerManager;
 import android.support.v4.media.MediaMetadataCompat;
@@ -28,40 +29,48 @@ import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
 import androidx.media.app.NotificationCompat.MediaStyle;
 
+import com.johngu.music.ArtworkCache;
 import com.johngu.music.Constants;
 import com.johngu.music.MainActivity;
+import com.johngu.music.ObjectPool;
 import com.johngu.music.R;
+import com.johngu.music.TrackInfoCache;
 
+import java.io.File;
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Random;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
+import io.flutter.plugin.common.EventChannel;
+
 import wseemann.media.FFmpegMediaMetadataRetriever;
 
 import static java.lang.Math.max;
 
 public final class MediaService extends IntentService
-        implements MediaPlayer.OnPreparedListener,
-        MediaPlayer.OnCompletionListener,
-        MediaPlayer.OnErrorListener,
-        MediaPlayer.OnSeekCompleteListener,
-        MediaPlayer.OnBufferingUpdateListener,
-        AudioManager.OnAudioFocusChangeListener {
+        implements PlayerEngine.Listener {
 
 
     final ThreadPoolExecutor threadPoolExecutor;
+    final CommandMailbox commandMailbox;
 
 
     public MediaService() {
         super("MediaService");
+        commandMailbox = new CommandMailbox();
         threadPoolExecutor = new ThreadPoolExecutor(1,
                 1, 10,
                 TimeUnit.SECONDS,
-                new LinkedBlockingQueue<>(),
+                commandMailbox,
                 Constants.MIN_PRIORITY_ThreadFactory,
                 new ThreadPoolExecutor.DiscardOldestPolicy());
         currentDataSource = new AtomicReference<>(null);
@@ -83,24 +92,24 @@ public final class MediaService extends IntentService
 
         switch (action) {
             case ACTION_KEY_PLAY:
-                Constants.MainThread.post(STARTRunnable);
+                eventDispatcher.dispatch("start", null);
                 break;
 
             case ACTION_KEY_PAUSE:
             case AudioManager.ACTION_AUDIO_BECOMING_NOISY:
-                Constants.MainThread.post(PAUSERunnable);
+                eventDispatcher.dispatch("pause", null);
                 break;
 
             case ACTION_KEY_PREVIOUS:
-                Constants.MainThread.post(PREVIOUSRunnable);
+                skipToPrevious();
                 break;
 
             case ACTION_KEY_NEXT:
-                Constants.MainThread.post(NEXTRunnable);
+                skipToNext();
                 break;
 
             case Intent.ACTION_SCREEN_ON:
-                customNotificationManager.notifyThis(mediaPlayer.isPlaying());
+                customNotificationManager.notifyThis(playback.getEngine().isPlaying());
                 break;
 
             default:
@@ -108,11 +117,6 @@ public final class MediaService extends IntentService
         }
     }
 
-    static final Runnable STARTRunnable = () -> Constants.MediaPlayerMethodChannel.invokeMethod("start", null);
-    static final Runnable PAUSERunnable = () -> Constants.MediaPlayerMethodChannel.invokeMethod("pause", null);
-    static final Runnable PREVIOUSRunnable = () -> Constants.MediaPlayerMethodChannel.invokeMethod("toPrevious", null);
-    static final Runnable NEXTRunnable = () -> Constants.MediaPlayerMethodChannel.invokeMethod("toNext", null);
-
     @Override
     public IBinder onBind(Intent intent) {
         return new MediaServiceBinder();
@@ -128,7 +132,7 @@ public final class MediaService extends IntentService
         }
 
         public final void reset() {
-            threadPoolExecutor.execute(new MediaPlayerRunnable(currentDataSource.get(), MediaPlayer_reset));
+            threadPoolExecutor.execute(new MediaPlayerRunnable(currentDataSource.get(), CommandMailbox.KIND_RESET, playback::reset));
         }
 
         public final void setDataSource(final String filePath,
@@ -136,39 +140,90 @@ public final class MediaService extends IntentService
                                         final String artist,
                                         final String album,
                                         final String extendFilePath) {
-            currentDataSource.set(filePath);
-            customNotificationManager.setupNotification(title, artist, album, filePath, extendFilePath);
-            threadPoolExecutor.execute(new MediaPlayerRunnable(currentDataSource.get(), MediaPlayer_reset));
-            threadPoolExecutor.execute(new MediaPlayerRunnable(currentDataSource.get(), MediaPlayer_setDataSource));
+            load(new Track(filePath, title, artist, album, extendFilePath));
+        }
+
+        // Replaces the native play queue, maps of filePath / title / artist / album /
+        // extendFilePath. [index] is the current track, it keeps playing
+        public final void setQueue(final List<Map<String, String>> tracks, final int index) {
+            final List<Track> items = new ArrayList<>(tracks.size());
+            for (final Map<String, String> track : tracks) {
+                items.add(new Track(track.get("filePath"),
+                        track.get("title"),
+                        track.get("artist"),
+                        track.get("album"),
+                        track.get("extendFilePath")));
+            }
+            queue.set(items, index);
+            // the chained next track may have moved
+            threadPoolExecutor.execute(new MediaPlayerRunnable(currentDataSource.get(), CommandMailbox.KIND_OTHER,
+                    MediaService.this::prepareQueuedNext));
+        }
+
+        // One of PlayQueue.MODE_*
+        public final void setQueueMode(final int mode) {
+            queue.setMode(mode);
+            threadPoolExecutor.execute(new MediaPlayerRunnable(currentDataSource.get(), CommandMailbox.KIND_OTHER,
+                    MediaService.this::prepareQueuedNext));
+        }
+
+        public final void skipTo(final int index) {
+            final Track track;
+            synchronized (queue) {
+                track = queue.get(queue.select(index));
+            }
+            if (track != null) loadQueued(index, track);
+        }
+
+        public final void skipToNext() {
+            MediaService.this.skipToNext();
+        }
+
+        public final void skipToPrevious() {
+            MediaService.this.skipToPrevious();
+        }
+
+        // Prepares [filePath] on a second player chained with setNextMediaPlayer,
+        // so it starts without a gap once the current track completes.
+        public final void setNextDataSource(final String filePath,
+                                            final String title,
+                                            final String artist,
+                                            final String album,
+                                            final String extendFilePath) {
+            threadPoolExecutor.execute(new MediaPlayerRunnable(currentDataSource.get(), CommandMailbox.KIND_OTHER,
+                    new prepareNextRunnable(new Track(filePath, title, artist, album, extendFilePath))));
         }
 
         public final int getCurrentPosition() {
-            return mediaPlayer.getCurrentPosition();
+            return playback.getEngine().getCurrentPosition();
         }
 
         public final int getDuration() {
-            return mediaPlayer.getDuration();
+            return playback.getEngine().getDuration();
         }
 
         public final void setLooping(final boolean loop) {
-            mediaPlayer.setLooping(loop);
+            playback.getEngine().setLooping(loop);
         }
 
         public final boolean isLooping() {
-            return mediaPlayer.isLooping();
+            return playback.getEngine().isLooping();
         }
 
         public final boolean isPlaying() {
-            return mediaPlayer.isPlaying();
+            return playback.getEngine().isPlaying();
         }
 
         public final void seekTo(final int position) {
-            threadPoolExecutor.execute(new MediaPlayerRunnable(currentDataSource.get(), new seekToRunnable(position)));
+            threadPoolExecutor.execute(new MediaPlayerRunnable(currentDataSource.get(), CommandMailbox.KIND_SEEK,
+                    () -> playback.seekTo(position)));
         }
 
         public final void setVolume(final float volume) {
             MediaService.this.volume = volume;
-            mediaPlayer.setVolume(MediaService.this.volume, MediaService.this.volume);
+            volumeTo(playback.getEngine(), volume * duckGain);
+            final PlayerEngine next = nextEngine;
+            if (next != null) volumeTo(next, volume * duckGain);
         }
 
         public final float getVolume() {
@@ -180,50 +235,403 @@ public final class MediaService extends IntentService
         }
 
         public final void turnOnNotification() {
-            customNotificationManager.turnOn(mediaPlayer.isPlaying());
+            customNotificationManager.turnOn(playback.getEngine().isPlaying());
         }
 
+        public final Map<String, Object> getBitmapCacheStats() {
+            return bitmapCache.getStats();
+        }
+
+        public final Map<String, Object> getCommandQueueStats() {
+            return commandMailbox.getStats();
+        }
+
+        public final Map<String, Object> getRetrieverPoolStats() {
+            return retrieverPool.getMetrics();
+        }
+
+        public final Map<String, Object> getNotificationStats() {
+            return customNotificationManager.getStats();
+        }
+
+        // 0 disables a fade, crossfade > 0 replaces gapless chaining with overlapping tracks
+        public final void setFadeDurations(final int fadeIn, final int fadeOut, final int crossfade) {
+            threadPoolExecutor.execute(() -> {
+                fadeInMs = max(0, fadeIn);
+                fadeOutMs = max(0, fadeOut);
+                crossfadeMs = max(0, crossfade);
+                if (crossfadeMs > 0 && nextChained) {
+                    try {
+                        playback.getEngine().setNextEngine(null);
+                    } catch (IllegalStateException e) {
+                        e.printStackTrace();
+                    }
+                    nextChained = false;
+                }
+                if (crossfadeMs == 0) Constants.MainThread.removeCallbacks(crossfadeCheck);
+                chainNext();
+            });
+        }
+
+        // Warms the head of the upcoming tracks, replaces the previous request. Empty cancels
+        public final void prefetch(final List<String> paths, final int bytesPerTrack, final int budgetBytes) {
+            prefetcher.prefetch(paths, bytesPerTrack, budgetBytes);
+        }
+
+        public final Map<String, Object> getPrefetchStats() {
+            return prefetcher.getStats();
+        }
+
+        public final Map<String, Object> getPlaybackMetrics() {
+            return playbackMetrics.toMap();
+        }
+
+        public final void setMetricsEnabled(final boolean enabled) {
+            playbackMetrics.setEnabled(enabled);
+        }
+
+        public final void resetMetrics() {
+            playbackMetrics.reset();
+        }
+
+        public final Map<String, Object> getEventStats() {
+            return eventDispatcher.getStats();
+        }
+
+        public final Map<String, Object> getAudioFocusStats() {
+            return audioFocusManager.getStats();
+        }
+
+        public final void setBinaryStateEvents(final boolean enable) {
+            binaryStateEvents = enable;
+        }
+
+        // Platform thread only
+        public final void setPositionSink(final EventChannel.EventSink sink, final int intervalMs) {
+            positionTicker.setSink(sink, intervalMs);
+        }
+
+        // Platform thread only, stops ticking while the UI is in the background
+        public final void setPositionTickerForeground(final boolean foreground) {
+            positionTicker.setForeground(foreground);
+        }
+
+    }
+
+    static final class Track {
+        final String filePath;
+        final String title;
+        final String artist;
+        final String album;
+        final String extendFilePath;
+
+        Track(final String filePath,
+              final String title,
+              final String artist,
+              final String album,
+              final String extendFilePath) {
+            this.filePath = filePath;
+            this.title = title;
+            this.artist = artist;
+            this.album = album;
+            this.extendFilePath = extendFilePath;
+        }
     }
 
-    private class seekToRunnable implements Runnable {
-        final int position;
+    private class prepareNextRunnable implements Runnable {
+        final Track track;
+
+        prepareNextRunnable(final Track track) {
+            this.track = track;
+        }
+
+        @Override
+        public void run() {
+            releaseNext();
+            final PlayerEngine player = createEngine();
+            try {
+                player.setDataSource(track.filePath);
+            } catch (IOException e) {
+                e.printStackTrace();
+                player.release();
+                return;
+            }
+            volumeTo(player, volume * duckGain);
+            nextTrack = track;
+            nextEngine = player;
+            player.prepareAsync();
+            // onPrepared chains it
+        }
+    }
 
-        seekToRunnable(final int position) {
-            this.position = position;
+    private class completionRunnable implements Runnable {
+        final PlayerEngine mp;
 
+        completionRunnable(final PlayerEngine mp) {
+            this.mp = mp;
         }
 
         @Override
         public void run() {
-            final int state = playbackStateBuilder.build().getState();
-            if (state == PlaybackStateCompat.STATE_CONNECTING) {
-                MediaPlayer_prepare.run();
-                mediaPlayer.seekTo(position);
-            } else if (state == PlaybackStateCompat.STATE_PAUSED || state == PlaybackStateCompat.STATE_PLAYING) {
-                mediaPlayer.seekTo(position);
+            if (mp != playback.getEngine()) return;
+            if (!nextChained) {
+                if (queue.isEmpty()) {
+                    eventDispatcher.dispatch("onCompletion", null);
+                    return;
+                }
+                final boolean repeatOne;
+                final int index;
+                final Track track;
+                synchronized (queue) {
+                    repeatOne = queue.getMode() == PlayQueue.MODE_REPEAT_ONE;
+                    index = queue.completed();
+                    track = queue.get(index);
+                }
+                if (repeatOne) {
+                    playback.replay();
+                } else {
+                    loadQueued(index, track);
+                }
+                return;
             }
+
+            // the next player already took over natively, catch up with it
+            advanceToNext();
+            mp.release();
         }
     }
 
+    // Executor thread, the prepared next player is already playing and becomes the current one
+    private void advanceToNext() {
+        final Track track = nextTrack;
+        final PlayerEngine next = nextEngine;
+        nextEngine = null;
+        nextTrack = null;
+        nextPrepared = false;
+        nextChained = false;
+
+        currentDataSource.set(track.filePath);
+        customNotificationManager.setupNotification(track.title, track.artist, track.album, track.filePath, track.extendFilePath);
+        playback.advanceTo(next);
+        positionTicker.emitNow();
+
+        final int index;
+        synchronized (queue) {
+            // the queue chained it, unless it was replaced in between
+            final int[] upcoming = queue.upcoming(1);
+            index = upcoming.length > 0 && queue.get(upcoming[0]).filePath.equals(track.filePath)
+                    ? queue.completed() : PlayQueue.NONE;
+        }
+        if (index == PlayQueue.NONE) {
+            final Map<String, Object> nextDataSource = new HashMap<>();
+            nextDataSource.put("filePath", track.filePath);
+            eventDispatcher.dispatch("onNextDataSource", nextDataSource);
+        } else {
+            dispatchQueueIndex(index, track);
+            prepareQueuedNext();
+        }
+        postState(StateEventCodec.EVENT_STATE, StateEventCodec.STATE_STARTED,
+                next.getCurrentPosition(), next.getDuration(), StateEventCodec.NONE);
+    }
+
+    // Any thread, what the binder setDataSource does
+    private void load(final Track track) {
+        playback.markRequested();
+        currentDataSource.set(track.filePath);
+        customNotificationManager.setupNotification(track.title, track.artist, track.album, track.filePath, track.extendFilePath);
+        threadPoolExecutor.execute(new MediaPlayerRunnable(track.filePath, CommandMailbox.KIND_RESET, playback::reset));
+        threadPoolExecutor.execute(new MediaPlayerRunnable(track.filePath, CommandMailbox.KIND_SET_DATA_SOURCE,
+                () -> playback.setDataSource(track.filePath)));
+    }
+
+    // Any thread, [track] at [index] became the queue's current one: loads it,
+    // keeps playing if it was and chains the one after it. Dart only follows
+    private void loadQueued(final int index, final Track track) {
+        if (track == null) return;
+        load(track);
+        if (playWhenReady) {
+            threadPoolExecutor.execute(new MediaPlayerRunnable(track.filePath, CommandMailbox.KIND_PLAY, playback::play));
+        }
+        threadPoolExecutor.execute(new MediaPlayerRunnable(track.filePath, CommandMailbox.KIND_OTHER,
+                this::prepareQueuedNext));
+        dispatchQueueIndex(index, track);
+    }
+
+    private void dispatchQueueIndex(final int index, final Track track) {
+        final Map<String, Object> arguments = new HashMap<>();
+        arguments.put("index", index);
+        arguments.put("filePath", track.filePath);
+        eventDispatcher.dispatch("onQueueIndex", arguments);
+    }
+
+    // Notification, headset and lock screen skips, Dart picks the track while no queue is set
+    final void skipToNext() {
+        final int index;
+        final Track track;
+        synchronized (queue) {
+            index = queue.next();
+            track = queue.get(index);
+        }
+        if (track == null) {
+            eventDispatcher.dispatch("toNext", null);
+            return;
+        }
+        loadQueued(index, track);
+    }
+
+    final void skipToPrevious() {
+        final int index;
+        final Track track;
+        synchronized (queue) {
+            index = queue.previous();
+            track = queue.get(index);
+        }
+        if (track == null) {
+            eventDispatcher.dispatch("toPrevious", null);
+            return;
+        }
+        loadQueued(index, track);
+    }
+
+    // Executor thread, chains the queue's next track and warms the ones after it.
+    // Leaves a next track set by Dart alone while no queue is set
+    private void prepareQueuedNext() {
+        final Track upcoming;
+        final List<String> paths = new ArrayList<>();
+        synchronized (queue) {
+            if (queue.isEmpty()) return;
+            final int[] indices = queue.upcoming(QUEUE_PREFETCH_COUNT + 1);
+            upcoming = indices.length == 0 ? null : queue.get(indices[0]);
+            for (int i = 1; i < indices.length; i++) paths.add(queue.get(indices[i]).filePath);
+        }
+        prefetcher.prefetch(paths, TrackPrefetcher.DEFAULT_BYTES_PER_TRACK, TrackPrefetcher.DEFAULT_BUDGET_BYTES);
+        if (upcoming == null) {
+            releaseNext();
+            return;
+        }
+        // already prepared or preparing
+        final Track chained = nextTrack;
+        if (chained != null && chained.filePath.equals(upcoming.filePath)) return;
+        new prepareNextRunnable(upcoming).run();
+    }
+
+    // Only touched on the executor thread
+    private void chainNext() {
+        if (nextEngine == null || !nextPrepared || nextChained) return;
+        final int state = playback.getState();
+        if (state != PlaybackStateCompat.STATE_PAUSED && state != PlaybackStateCompat.STATE_PLAYING) return;
+        if (crossfadeMs > 0) {
+            // overlapping tracks cannot be chained natively
+            scheduleCrossfade();
+            return;
+        }
+        try {
+            playback.getEngine().setNextEngine(nextEngine);
+            nextChained = true;
+        } catch (IllegalStateException e) {
+            e.printStackTrace();
+        }
+    }
+
+    final private Runnable crossfadeCheck = () -> threadPoolExecutor.execute(
+            new MediaPlayerRunnable(currentDataSource.get(), CommandMailbox.KIND_OTHER, this::crossfade));
+
+    // Executor thread, wakes up crossfadeMs before the end of the current track.
+    // Re-armed on play, seek and once the next player is prepared.
+    private void scheduleCrossfade() {
+        Constants.MainThread.removeCallbacks(crossfadeCheck);
+        if (crossfadeMs <= 0 || nextEngine == null || !nextPrepared
+                || playback.getState() != PlaybackStateCompat.STATE_PLAYING) return;
+        final PlayerEngine engine = playback.getEngine();
+        final int remaining = engine.getDuration() - engine.getCurrentPosition();
+        Constants.MainThread.postDelayed(crossfadeCheck, max(0, remaining - crossfadeMs));
+    }
+
+    private void crossfade() {
+        final PlayerEngine previous = playback.getEngine();
+        if (crossfadeMs <= 0 || nextEngine == null || !nextPrepared
+                || playback.getState() != PlaybackStateCompat.STATE_PLAYING || !previous.isPlaying()) return;
+        final int remaining = previous.getDuration() - previous.getCurrentPosition();
+        if (remaining > crossfadeMs + CROSSFADE_SLACK_MS) {
+            scheduleCrossfade();
+            return;
+        }
+        final PlayerEngine next = nextEngine;
+        final int duration = max(1, remaining);
+        volumeTo(next, volume * duckGain);
+        volumeFader.fadeIn(next, duration);
+        next.start();
+        advanceToNext();
+        // its completion is ignored from now on, the fade-out releases it
+        releaseFadingOut();
+        fadingOut = previous;
+        volumeFader.fadeOut(previous, duration, () -> threadPoolExecutor.execute(() -> {
+            if (fadingOut == previous) releaseFadingOut();
+        }));
+    }
+
+    // Executor thread, ends the crossfaded-out track early: a pause, reset or
+    // skip must not leave it playing until its fade is over
+    private void releaseFadingOut() {
+        final PlayerEngine previous = fadingOut;
+        if (previous == null) return;
+        fadingOut = null;
+        volumeFader.cancel(previous);
+        previous.release();
+    }
+
+    private void releaseNext() {
+        if (nextEngine == null) return;
+        if (nextChained) {
+            try {
+                playback.getEngine().setNextEngine(null);
+            } catch (IllegalStateException e) {
+                e.printStackTrace();
+            }
+        }
+        nextEngine.release();
+        nextEngine = null;
+        nextTrack = null;
+        nextPrepared = false;
+        nextChained = false;
+    }
+
     final void start() {
-        threadPoolExecutor.execute(new MediaPlayerRunnable(currentDataSource.get(), MediaPlayer_play));
+        playWhenReady = true;
+        playback.markPlayRequested();
+        threadPoolExecutor.execute(new MediaPlayerRunnable(currentDataSource.get(), CommandMailbox.KIND_PLAY, playback::play));
     }
 
     final void pause() {
-        threadPoolExecutor.execute(new MediaPlayerRunnable(currentDataSource.get(), MediaPlayer_pause));
+        playWhenReady = false;
+        threadPoolExecutor.execute(new MediaPlayerRunnable(currentDataSource.get(), CommandMailbox.KIND_PAUSE, playback::pause));
     }
 
-    private class MediaPlayerRunnable implements Runnable {
+    private class MediaPlayerRunnable implements CommandMailbox.Command {
         final String DataSource;
+        final int kind;
         final Runnable sub;
+        final long enqueuedAt = System.nanoTime();
 
-        MediaPlayerRunnable(String dataSource, Runnable sub) {
+        MediaPlayerRunnable(String dataSource, int kind, Runnable sub) {
             this.DataSource = dataSource;
+            this.kind = kind;
             this.sub = sub;
         }
 
+        @Override
+        public final int getKind() {
+            return kind;
+        }
+
+        @Override
+        public final String getDataSource() {
+            return DataSource;
+        }
+
         @Override
         public final void run() {
+            playbackMetrics.record(PlaybackMetrics.QUEUE_WAIT, enqueuedAt);
             final String source = currentDataSource.get();
             if (source != null && !source.equals(DataSource)) return;
             sub.run();
@@ -231,135 +639,133 @@ public final class MediaService extends IntentService
     }
 
     static private final float PLAYBACK_SPEED = 1.0f;
-    static private final int INVALID_POSITION = 0;
     public final AtomicReference<String> currentDataSource;
-    private MediaPlayer mediaPlayer;
+    // State machine over the current engine, see PlaybackController
+    private PlaybackController playback;
+    // Gapless next track, becomes the current engine once it took over
+    private volatile PlayerEngine nextEngine;
+    private Track nextTrack;
+    private boolean nextPrepared = false;
+    private boolean nextChained = false;
+
+    final private PlaybackMetrics playbackMetrics = new PlaybackMetrics();
+    final private TrackPrefetcher prefetcher = new TrackPrefetcher(Constants.MIN_PRIORITY_ThreadFactory);
+    // Set by Dart with setQueue, empty leaves skips and completions to Dart
+    final private PlayQueue<Track> queue = new PlayQueue<>(new Random());
+    // Last start / pause, a native skip keeps playing when it was
+    private volatile boolean playWhenReady = false;
 
     // Don't use it in other threads
     private MediaSessionCompat mediaSession;
     // Don't use it in other threads
     private PlaybackStateCompat.Builder playbackStateBuilder;
 
-    final Runnable MediaPlayer_play = new Runnable() {
+    private PositionTicker positionTicker;
+
+    final PositionTicker.Source positionSource = new PositionTicker.Source() {
         @Override
-        public final void run() {
-            Log.d("MediaPlayer", "Play");
-            if (playbackStateBuilder.build().getState() == PlaybackStateCompat.STATE_CONNECTING) {
-                MediaPlayer_prepare.run();
-                return;
-            } else if (playbackStateBuilder.build().getState() != PlaybackStateCompat.STATE_PAUSED) {
-                return;
-            }
+        public int getPosition() {
+            return playback.isPrepared()
+                    ? playback.getEngine().getCurrentPosition() : PlaybackController.INVALID_POSITION;
+        }
 
-            int res = audioFocusRequest();
-            if (res != AudioManager.AUDIOFOCUS_REQUEST_FAILED) {
-                volumeTo(mediaPlayer, volume);
-                mediaPlayer.start();
-                if (mediaPlayer.isPlaying()) {
-                    final Map<String, Object> result = new HashMap<String, Object>() {{
-                        put("State", "started");
-                        put("CurrentPosition", mediaPlayer.getCurrentPosition());
-                        put("Duration", mediaPlayer.getDuration());
-                    }};
-                    Constants.MainThread.post(() -> Constants.MediaPlayerMethodChannel.invokeMethod("State", result));
-                    playbackStateBuilder.setState(PlaybackStateCompat.STATE_PLAYING,
-                            mediaPlayer.getCurrentPosition(),
-                            PLAYBACK_SPEED);
-                    mediaSession.setPlaybackState(playbackStateBuilder.build());
-                    customNotificationManager.notifyThis(true);
-                }
-            }
+        @Override
+        public int getDuration() {
+            return playback.isPrepared()
+                    ? playback.getEngine().getDuration() : PlaybackController.INVALID_POSITION;
         }
-    };
-    final Runnable MediaPlayer_pause = new Runnable() {
+
         @Override
-        public final void run() {
-            if (!mediaPlayer.isPlaying()) {
-                return;
-            }
-            volumeTo(mediaPlayer, 0.f);
-            mediaPlayer.pause();
-            audioFocusRelease();
-            final Map<String, Object> result = new HashMap<String, Object>() {{
-                put("State", "paused");
-                put("CurrentPosition", mediaPlayer.getCurrentPosition());
-                put("Duration", mediaPlayer.getDuration());
-            }};
-            Constants.MainThread.post(() -> Constants.MediaPlayerMethodChannel.invokeMethod("State", result));
-            playbackStateBuilder.setState(PlaybackStateCompat.STATE_PAUSED,
-                    mediaPlayer.getCurrentPosition(),
-                    PLAYBACK_SPEED);
-            mediaSession.setPlaybackState(playbackStateBuilder.build());
-            customNotificationManager.notifyThis(false);
+        public int getState() {
+            return playback.getState();
         }
     };
-    final Runnable MediaPlayer_reset = new Runnable() {
+
+    // Android side of the state machine: session, notification, focus and fades
+    final private PlaybackController.Host playbackHost = new PlaybackController.Host() {
+        // Command thread
         @Override
-        public final void run() {
-            mediaPlayer.reset();
-            playbackStateBuilder.setState(PlaybackStateCompat.STATE_NONE,
-                    INVALID_POSITION,
-                    PLAYBACK_SPEED);
+        public void onPlaybackState(final int state, final long position, final boolean changed) {
+            playbackStateBuilder.setState(state, position, PLAYBACK_SPEED);
             mediaSession.setPlaybackState(playbackStateBuilder.build());
-            final Map<String, Object> result = new HashMap<String, Object>() {{
-                put("State", "end");
-            }};
-            Constants.MainThread.post(() -> Constants.MediaPlayerMethodChannel.invokeMethod("State", result));
+            if (changed) positionTicker.emitNow();
+        }
 
+        @Override
+        public void postState(final int event,
+                              final int state,
+                              final int position,
+                              final int duration,
+                              final int timeToFirstAudio) {
+            MediaService.this.postState(event, state, position, duration, timeToFirstAudio);
         }
-    };
-    final Runnable MediaPlayer_prepare = new Runnable() {
+
         @Override
-        public final void run() {
-            if ((playbackStateBuilder.build().getState() != PlaybackStateCompat.STATE_CONNECTING))
-                throw new AssertionError();
-            playbackStateBuilder.setState(PlaybackStateCompat.STATE_BUFFERING,
-                    INVALID_POSITION,
-                    PLAYBACK_SPEED);
-            mediaSession.setPlaybackState(playbackStateBuilder.build());
-            try {
-                mediaPlayer.prepare();
-                playbackStateBuilder.setState(PlaybackStateCompat.STATE_PAUSED,
-                        INVALID_POSITION,
-                        PLAYBACK_SPEED);
-                mediaSession.setPlaybackState(playbackStateBuilder.build());
-            } catch (IOException e) {
-                e.printStackTrace();
+        public boolean requestFocus() {
+            final int res = audioFocusManager.request();
+            if (res == AudioManager.AUDIOFOCUS_REQUEST_DELAYED) {
+                // starts from onFocusGained
+                isPlayingBeforeLossFocus = true;
             }
-            //onPreparedCallBack
+            return res == AudioManager.AUDIOFOCUS_REQUEST_GRANTED;
         }
-    };
-    final Runnable MediaPlayer_setDataSource = new Runnable() {
+
         @Override
-        public final void run() {
-            try {
-                playbackStateBuilder.setState(PlaybackStateCompat.STATE_CONNECTING,
-                        INVALID_POSITION,
-                        PLAYBACK_SPEED);
-                mediaSession.setPlaybackState(playbackStateBuilder.build());
-                final String source = currentDataSource.get();
-                mediaPlayer.setDataSource(source);
-                final Map<String, Object> result = new HashMap<String, Object>() {{
-                    put("State", "paused");
-                }};
-                Constants.MainThread.post(() -> Constants.MediaPlayerMethodChannel.invokeMethod("State", result));
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+        public void beforeStart(final PlayerEngine engine) {
+            volumeTo(engine, volume * duckGain);
+            volumeFader.fadeIn(engine, fadeInMs);
+        }
+
+        @Override
+        public void onPlayingChanged(final boolean playing) {
+            customNotificationManager.notifyThis(playing);
+            if (playing) scheduleCrossfade();
+        }
+
+        @Override
+        public int getFadeOutMs() {
+            return fadeOutMs;
+        }
+
+        @Override
+        public void fadeOut(final PlayerEngine engine, final int durationMs, final Runnable onDone) {
+            volumeFader.fadeOut(engine, durationMs, onDone);
+        }
+
+        @Override
+        public void onPausedNow(final PlayerEngine engine, final boolean keepFocus) {
+            releaseFadingOut();
+            volumeFader.cancel(engine);
+            if (!keepFocus) audioFocusManager.releaseWhenIdle();
+            positionTicker.emitNow();
+        }
+
+        @Override
+        public void onReset(final PlayerEngine engine) {
+            releaseFadingOut();
+            releaseNext();
+            volumeFader.cancel(engine);
+        }
+
+        @Override
+        public void onReady() {
+            chainNext();
         }
     };
 
     private AudioAttributes audioAttributes;
 
-    final void MediaPlayerInitialization() {
-        mediaPlayer = new MediaPlayer();
-        mediaPlayer.setWakeMode(this, PowerManager.PARTIAL_WAKE_LOCK);
-        mediaPlayer.setOnPreparedListener(this);
-        mediaPlayer.setOnCompletionListener(this);
-        mediaPlayer.setOnErrorListener(this);
-        mediaPlayer.setOnBufferingUpdateListener(this);
-        mediaPlayer.setOnSeekCompleteListener(this);
+    final PlayerEngine createEngine() {
+        final MediaPlayer player = new MediaPlayer();
+        player.setWakeMode(this, PowerManager.PARTIAL_WAKE_LOCK);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            player.setAudioAttributes(audioAttributes);
+        }
+        player.setAudioStreamType(MainActivity.instance.getVolumeControlStream());
+        return new MediaPlayerEngine(player, this);
+    }
 
+    final void MediaPlayerInitialization() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
             audioAttributes = new AudioAttributes.Builder()
                     .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
@@ -367,12 +773,12 @@ public final class MediaService extends IntentService
                     .setUsage(AudioAttributes.USAGE_MEDIA)
                     .setLegacyStreamType(MainActivity.instance.getVolumeControlStream())
                     .build();
-            mediaPlayer.setAudioAttributes(audioAttributes);
         }
-
-        mediaPlayer.setAudioStreamType(MainActivity.instance.getVolumeControlStream());
+        playback = new PlaybackController(createEngine(), playbackHost, threadPoolExecutor, playbackMetrics);
         volume = 1.f;
 
+        positionTicker = new PositionTicker(Constants.MainThread, positionSource);
+        eventDispatcher = new EventDispatcher(Constants.MainThread);
         mediaSession = new MediaSessionCompat(this, "MediaPlayer");
         playbackStateBuilder = new PlaybackStateCompat.Builder();
         playbackStateBuilder
@@ -383,40 +789,30 @@ public final class MediaService extends IntentService
     }
 
     private AudioManager audioManager;
-    private AudioFocusRequest audioFocusRequest;
+    private AudioFocusManager audioFocusManager;
 
     private void AudioFocusInit() {
         audioManager = (AudioManager) getSystemService(AUDIO_SERVICE);
         audioManager.setMode(AudioManager.MODE_NORMAL);
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            audioFocusRequest = new AudioFocusRequest.Builder(AudioManager.AUDIOFOCUS_GAIN)
-                    .setAudioAttributes(audioAttributes)
-                    .setAcceptsDelayedFocusGain(true)
-                    .setWillPauseWhenDucked(true)
-                    .setOnAudioFocusChangeListener(this)
-                    .build();
-        }
-    }
-
-    private int audioFocusRequest() {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            audioManager.abandonAudioFocusRequest(audioFocusRequest);
-            return audioManager.requestAudioFocus(audioFocusRequest);
-        } else {
-            audioManager.abandonAudioFocus(this);
-            return audioManager.requestAudioFocus(this, AudioManager.STREAM_MUSIC, AudioManager.AUDIOFOCUS_GAIN_TRANSIENT);
-        }
-    }
-
-    private void audioFocusRelease() {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            audioManager.abandonAudioFocusRequest(audioFocusRequest);
-        } else {
-            audioManager.abandonAudioFocus(this);
-        }
+        audioFocusManager = new AudioFocusManager(audioManager, audioAttributes, Constants.MainThread, audioFocusListener);
     }
 
     private CustomNotificationManager customNotificationManager;
+    private final BitmapCache bitmapCache = new BitmapCache(BITMAP_CACHE_BYTES);
+    // Fallback for files the shared TrackInfoCache cannot parse. Notification
+    // setup runs on the single command thread, one retriever is enough
+    private final ObjectPool<FFmpegMediaMetadataRetriever> retrieverPool =
+            new ObjectPool<>(new ObjectPool.Factory<FFmpegMediaMetadataRetriever>() {
+                @Override
+                public FFmpegMediaMetadataRetriever create() {
+                    return new FFmpegMediaMetadataRetriever();
+                }
+
+                @Override
+                public void destroy(FFmpegMediaMetadataRetriever object) {
+                    object.release();
+                }
+            }, 1, 60 * 1000);
 
     private void notificationManagerInit() {
         customNotificationManager = new CustomNotificationManager(CustomNotificationManagerState.ON);
@@ -430,6 +826,18 @@ public final class MediaService extends IntentService
         notificationManagerInit();
     }
 
+    // adb shell dumpsys activity service com.johngu.music/.Service.MediaService
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        playbackMetrics.dump(writer);
+        writer.println("Command queue " + commandMailbox.getStats());
+        writer.println("Events " + eventDispatcher.getStats());
+        writer.println("Notification " + customNotificationManager.getStats());
+        writer.println("Audio focus " + audioFocusManager.getStats());
+        writer.println("Bitmap cache " + bitmapCache.getStats());
+        writer.println("Prefetch " + prefetcher.getStats());
+    }
+
     @Override
     public void onTaskRemoved(Intent rootIntent) {
         dispose();
@@ -444,88 +852,146 @@ public final class MediaService extends IntentService
 
     void dispose() {
         threadPoolExecutor.shutdownNow();
-        customNotificationManager.cancel();
-        playbackStateBuilder.setState(PlaybackStateCompat.STATE_NONE, 0, PLAYBACK_SPEED);
-        mediaSession.setPlaybackState(playbackStateBuilder.build());
+        prefetcher.shutdown();
+        final PlayerEngine next = nextEngine;
+        if (next != null) next.release();
+        customNotificationManager.dispose();
+        audioFocusManager.abandon();
+        Constants.MainThread.removeCallbacks(crossfadeCheck);
+        volumeFader.quit();
+        final PlayerEngine previous = fadingOut;
+        if (previous != null) previous.release();
+        bitmapCache.clear();
+        retrieverPool.clear();
+        playback.setState(PlaybackController.STATE_NONE, 0);
+        positionTicker.setSink(null, PositionTicker.DEFAULT_INTERVAL_MS);
     }
 
-    private boolean isPlayingBeforeLossFocus = false;
+    private int fadeInMs = DEFAULT_FADE_MS;
+    private int fadeOutMs = DEFAULT_FADE_MS;
+    private int crossfadeMs = 0;
+    // previous track of a crossfade, until its fade-out ends
+    private PlayerEngine fadingOut;
+    final private VolumeFader volumeFader = new VolumeFader(() -> volume * duckGain);
+
+    private volatile boolean isPlayingBeforeLossFocus = false;
     private float volume;
+    // ducking gain applied on top of [volume]
+    private volatile float duckGain = 1.f;
 
-    final void volumeTo(final MediaPlayer mp, final float newVolume) {
-        mp.setVolume(newVolume, newVolume);
+    final void volumeTo(final PlayerEngine engine, final float newVolume) {
+        engine.setVolume(newVolume);
     }
 
-    @Override
-    final public void onAudioFocusChange(int focusChange) {
-        switch (focusChange) {
-            case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT:
-            case AudioManager.AUDIOFOCUS_LOSS:
-                if (mediaPlayer != null && mediaPlayer.isPlaying()) {
-                    isPlayingBeforeLossFocus = true;
-                    pause();
-                } else {
-                    isPlayingBeforeLossFocus = false;
-                }
-                break;
+    final private AudioFocusManager.Listener audioFocusListener = new AudioFocusManager.Listener() {
+        @Override
+        public void onFocusLost(final boolean transientLoss) {
+            if (playback.getEngine().isPlaying()) {
+                isPlayingBeforeLossFocus = transientLoss;
+                playback.setPausedForFocusLoss(transientLoss);
+                pause();
+            } else {
+                isPlayingBeforeLossFocus = false;
+            }
+        }
 
-            case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK:
-                volumeTo(mediaPlayer, (float) max(volume - 0.2, 0.0));
-                break;
+        @Override
+        public void onFocusGained() {
+            if (!playback.getEngine().isPlaying() && isPlayingBeforeLossFocus) {
+                start();
+            }
+            // clear flag
+            isPlayingBeforeLossFocus = false;
+        }
 
-            case AudioManager.AUDIOFOCUS_GAIN_TRANSIENT_EXCLUSIVE:
-            case AudioManager.AUDIOFOCUS_GAIN_TRANSIENT:
-            case AudioManager.AUDIOFOCUS_GAIN:
-                Log.d("AUDIOFOCUS_GAIN: ", "focusChange");
-                if (volume >= 0) {
-                    volumeTo(mediaPlayer, volume);
-                }
-                if (mediaPlayer != null && !mediaPlayer.isPlaying() && isPlayingBeforeLossFocus) {
-                    start();
-                }
-                // clear flag
-                isPlayingBeforeLossFocus = false;
-                break;
+        @Override
+        public void onGainChanged(final float gain) {
+            duckGain = gain;
+            final PlayerEngine engine = playback.getEngine();
+            if (engine.isPlaying()) volumeTo(engine, volume * gain);
+            final PlayerEngine next = nextEngine;
+            if (next != null) volumeTo(next, volume * gain);
         }
-    }
+    };
 
     @Override
-    public void onBufferingUpdate(MediaPlayer mp, int percent) {
-        Constants.MediaPlayerMethodChannel.invokeMethod("onBufferingUpdate", null);
+    public void onBufferingUpdate(PlayerEngine mp, int percent) {
+        eventDispatcher.dispatchLatest("onBufferingUpdate", percent);
     }
 
     @Override
-    public void onCompletion(MediaPlayer mp) {
-        Constants.MediaPlayerMethodChannel.invokeMethod("onCompletion", null);
+    public void onCompletion(PlayerEngine mp) {
+        threadPoolExecutor.execute(new completionRunnable(mp));
     }
 
     @Override
-    public boolean onError(MediaPlayer mp, int what, int extra) {
-        Constants.MediaPlayerMethodChannel.invokeMethod("onError", null);
+    public boolean onError(PlayerEngine mp, int what, int extra) {
+        if (mp == nextEngine) {
+            // the current track keeps playing, completion loads the next one the slow way
+            threadPoolExecutor.execute(() -> {
+                if (mp == nextEngine) releaseNext();
+            });
+            return true;
+        }
+        threadPoolExecutor.execute(() -> {
+            if (mp == playback.getEngine()) playback.onError();
+        });
+        eventDispatcher.dispatch("onError", null);
         return false;
     }
 
     @Override
-    public void onPrepared(MediaPlayer mp) {
-        threadPoolExecutor.execute(new MediaPlayerRunnable(currentDataSource.get(), MediaPlayer_play));
+    public void onPrepared(PlayerEngine mp) {
+        if (mp == nextEngine) {
+            threadPoolExecutor.execute(() -> {
+                if (mp != nextEngine) return;
+                nextPrepared = true;
+                chainNext();
+            });
+            return;
+        }
+        // a callback queued behind a reset and a new prepare must not count for that one
+        final int token = playback.getPrepareToken();
+        threadPoolExecutor.execute(new MediaPlayerRunnable(currentDataSource.get(), CommandMailbox.KIND_OTHER,
+                () -> playback.onPrepared(token)));
     }
 
     @Override
-    public void onSeekComplete(MediaPlayer mp) {
-        if (mediaPlayer.isPlaying()) {
-            final Map<String, Object> result = new HashMap<String, Object>() {{
-                put("CurrentPosition", mediaPlayer.getCurrentPosition());
-                put("Duration", mediaPlayer.getDuration());
-                put("State", "started");
-            }};
-            Constants.MediaPlayerMethodChannel.invokeMethod("onSeekComplete", result);
+    public void onSeekComplete(PlayerEngine mp) {
+        positionTicker.emitNow();
+        threadPoolExecutor.execute(this::scheduleCrossfade);
+        final PlayerEngine engine = playback.getEngine();
+        postState(StateEventCodec.EVENT_SEEK_COMPLETE,
+                engine.isPlaying() ? StateEventCodec.STATE_STARTED : StateEventCodec.STATE_PAUSED,
+                engine.getCurrentPosition(), engine.getDuration(), StateEventCodec.NONE);
+    }
+
+    private EventDispatcher eventDispatcher;
+
+    // Set by Dart once it listens on the binary "MediaPlayer/state" channel
+    private volatile boolean binaryStateEvents = false;
+
+    // Reports a player state to Dart, as a fixed-layout ByteBuffer when Dart opted in,
+    // otherwise as the "State" / "onSeekComplete" method map. Safe from any thread.
+    private void postState(final int event,
+                           final int state,
+                           final int position,
+                           final int duration,
+                           final int timeToFirstAudio) {
+        if (binaryStateEvents) {
+            // through the dispatcher, so it cannot overtake a method event queued before it
+            eventDispatcher.dispatchState(StateEventCodec.encode(event, state, position, duration, timeToFirstAudio));
+            return;
+        }
+        final Map<String, Object> result = new HashMap<>();
+        result.put("State", StateEventCodec.stateName(state));
+        if (position != StateEventCodec.NONE) result.put("CurrentPosition", position);
+        if (duration != StateEventCodec.NONE) result.put("Duration", duration);
+        if (timeToFirstAudio != StateEventCodec.NONE) result.put("TimeToFirstAudio", timeToFirstAudio);
+        if (event == StateEventCodec.EVENT_SEEK_COMPLETE) {
+            eventDispatcher.dispatchLatest(StateEventCodec.eventName(event), result);
         } else {
-            final Map<String, Object> result = new HashMap<String, Object>() {{
-                put("CurrentPosition", mediaPlayer.getCurrentPosition());
-                put("Duration", mediaPlayer.getDuration());
-                put("State", "paused");
-            }};
-            Constants.MediaPlayerMethodChannel.invokeMethod("onSeekComplete", result);
+            eventDispatcher.dispatch(StateEventCodec.eventName(event), result);
         }
     }
 
@@ -534,6 +1000,16 @@ public final class MediaService extends IntentService
     static final String MediaPlayerNotificationChannel_DESCRIPTION = "MediaPlayer notification for playback control";
     static final int MediaPlayerNotifyID = 0;
 
+    static final int DEFAULT_FADE_MS = 200;
+    // queued tracks after the chained one whose head is read ahead
+    static final int QUEUE_PREFETCH_COUNT = 3;
+    // crossfade is triggered this late at most, the check itself is a posted message
+    static final int CROSSFADE_SLACK_MS = 50;
+
+    static final String DEFAULT_ARTWORK_KEY = "@default";
+    // a handful of 512px ARGB artworks
+    static final int BITMAP_CACHE_BYTES = 8 * 1024 * 1024;
+
     enum CustomNotificationManagerState {
         ON, OFF
     }
@@ -544,6 +1020,8 @@ public final class MediaService extends IntentService
         final private MediaMetadataCompat.Builder mediaMetadata;
         final private NotificationCompat.Builder notificationPendingBuilder;
         final private NotificationCompat.Builder notificationActingBuilder;
+        final private HandlerThread rendererThread = new HandlerThread("NotificationRenderer");
+        final private NotificationRenderer renderer;
 
         CustomNotificationManagerState state;
 
@@ -582,32 +1060,32 @@ public final class MediaService extends IntentService
                 @Override
                 final public void onPlay() {
                     super.onPlay();
-                    Constants.MainThread.post(STARTRunnable);
+                    eventDispatcher.dispatch("start", null);
                 }
 
                 @Override
                 final public void onPause() {
                     super.onPause();
-                    Constants.MainThread.post(PAUSERunnable);
+                    eventDispatcher.dispatch("pause", null);
                 }
 
                 @Override
                 final public void onSkipToNext() {
                     super.onSkipToNext();
-                    Constants.MainThread.post(NEXTRunnable);
+                    skipToNext();
                 }
 
                 @Override
                 final public void onSkipToPrevious() {
                     super.onSkipToPrevious();
-                    Constants.MainThread.post(PREVIOUSRunnable);
+                    skipToPrevious();
                 }
 
 
                 @TargetApi(Build.VERSION_CODES.N)
                 @Override
                 final public void onSeekTo(long pos) {
-                    mediaPlayer.seekTo(Math.toIntExact(pos));
+                    playback.getEngine().seekTo(Math.toIntExact(pos));
                     super.onSeekTo(pos);
                 }
             });
@@ -664,6 +1142,12 @@ public final class MediaService extends IntentService
                     .addAction(generateMediaServiceAction(R.drawable.ic_next, "Next", ACTION_KEY_NEXT));
 
             notificationManager.cancel(MediaPlayerNotifyID);
+            rendererThread.start();
+            renderer = new NotificationRenderer(notificationManager,
+                    MediaPlayerNotifyID,
+                    notificationActingBuilder,
+                    notificationPendingBuilder,
+                    new Handler(rendererThread.getLooper()));
         }
 
         private NotificationCompat.Action generateMediaServiceAction(final int icon, final String title, final String extra) {
@@ -674,6 +1158,17 @@ public final class MediaService extends IntentService
             return new NotificationCompat.Action.Builder(icon, title, pendingIntent).build();
         }
 
+        private Bitmap defaultArtwork() {
+            Bitmap bitmap = bitmapCache.get(DEFAULT_ARTWORK_KEY);
+            if (bitmap == null) {
+                final BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inSampleSize = 4;
+                bitmap = BitmapFactory.decodeResource(getResources(), R.drawable.ic_abstract, options);
+                bitmapCache.put(DEFAULT_ARTWORK_KEY, bitmap);
+            }
+            return bitmap;
+        }
+
         final void setupNotification(
                 final String title,
                 final String artist,
@@ -685,16 +1180,21 @@ public final class MediaService extends IntentService
 
         final void notifyThis(final boolean isPlaying) {
             if (state == CustomNotificationManagerState.ON) {
-                if (isPlaying) {
-                    notificationManager.notify(MediaPlayerNotifyID, notificationActingBuilder.build());
-                } else {
-                    notificationManager.notify(MediaPlayerNotifyID, notificationPendingBuilder.build());
-                }
+                renderer.setPlaying(isPlaying);
             }
         }
 
         final void cancel() {
-            notificationManager.cancel(MediaPlayerNotifyID);
+            renderer.cancel();
+        }
+
+        final void dispose() {
+            renderer.cancel();
+            rendererThread.quit();
+        }
+
+        final Map<String, Object> getStats() {
+            return renderer.getStats();
         }
 
         final void cancelNow() {
@@ -729,43 +1229,40 @@ public final class MediaService extends IntentService
             @Override
             public void run() {
                 if (!currentDataSource.get().equals(filePath)) return;
-                final FFmpegMediaMetadataRetriever mmr = new FFmpegMediaMetadataRetriever();
-                final BitmapFactory.Options options = new BitmapFactory.Options();
-                final Bitmap bitmap;
-
-                mmr.setDataSource(filePath);
-                final byte[] bytes = mmr.getEmbeddedPicture();
-                if (bytes != null) {
-                    options.inJustDecodeBounds = true;
-                    BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
-                    options.inSampleSize = Constants.calculateInSampleSize(options, 512, 512);
-                    options.inJustDecodeBounds = false;
-                    bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
-                } else {
-                    options.inSampleSize = 4;
-                    bitmap = BitmapFactory.decodeResource(getResources(), R.drawable.ic_abstract, options);
+                final String key = filePath + ':' + new File(filePath).lastModified();
+                Bitmap bitmap = bitmapCache.get(key);
+                // tags are usually parsed for the song tile already and the 512px artwork
+                // is on disk after the first play, a cold file is opened once for both
+                final byte[][] thumbnail = new byte[1][];
+                long duration = TrackInfoCache.get(MediaService.this, filePath,
+                        bitmap == null ? ArtworkCache.SIZE_LARGE : 0, thumbnail).duration;
+                if (duration <= 0) {
+                    // formats the platform retriever cannot parse
+                    final FFmpegMediaMetadataRetriever mmr = retrieverPool.acquire();
+                    try {
+                        mmr.setDataSource(filePath);
+                        duration = Long.parseLong(mmr.extractMetadata(FFmpegMediaMetadataRetriever.METADATA_KEY_DURATION));
+                        retrieverPool.release(mmr);
+                    } catch (RuntimeException e) {
+                        Log.d("MediaService", "Failed to read " + filePath);
+                        retrieverPool.discard(mmr);
+                    }
                 }
 
-                notificationPendingBuilder.setContentTitle(title);
-                notificationPendingBuilder.setContentText(artist);
-                notificationPendingBuilder.setSubText(album);
-
-                notificationActingBuilder.setContentTitle(title);
-                notificationActingBuilder.setContentText(artist);
-                notificationActingBuilder.setSubText(album);
+                if (bitmap == null && thumbnail[0] != null) bitmap = bitmapCache.decode(key, thumbnail[0]);
+                if (bitmap == null) bitmap = defaultArtwork();
+                bitmapCache.pin(bitmap);
 
-                notificationPendingBuilder.setLargeIcon(bitmap);
-                notificationActingBuilder.setLargeIcon(bitmap);
+                renderer.setContent(title, artist, album, bitmap);
 
                 mediaMetadata.putBitmap(MediaMetadata.METADATA_KEY_ART, bitmap);
                 mediaMetadata.putString(MediaMetadata.METADATA_KEY_TITLE, title);
                 mediaMetadata.putString(MediaMetadata.METADATA_KEY_ARTIST, artist);
                 mediaMetadata.putString(MediaMetadata.METADATA_KEY_ALBUM, album);
-                mediaMetadata.putLong(MediaMetadata.METADATA_KEY_DURATION, Integer.parseInt(mmr.extractMetadata(FFmpegMediaMetadataRetriever.METADATA_KEY_DURATION)));
+                mediaMetadata.putLong(MediaMetadata.METADATA_KEY_DURATION, duration);
                 mediaSession.setMetadata(mediaMetadata.build());
 
-                notifyThis(mediaPlayer.isPlaying());
-                mmr.release();
+                notifyThis(playback.getEngine().isPlaying());
             }
         }
     }
@@ -0,0 +1,147 @@
+package com.johngu.music.Service;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.core.app.NotificationCompat;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Posts the playback notification only when what it shows changed.
+// setContent only records the track, posting is left to setPlaying, which the
+// service calls only while its notification is turned on. Requests are
+// coalesced for COALESCE_MS so a burst (track change followed by start,
+// play/pause mashing, screen on) ends in a single notify, and a request
+// matching what was last posted is dropped. The playing / paused Notifications
+// are built once per content and reused, so a toggle does not rebuild the
+// RemoteViews. A notify that does go out still parcels the large icon, older
+// MediaStyle templates draw it from the notification and not the session.
+final class NotificationRenderer {
+    static private final int COALESCE_MS = 100;
+
+    final private NotificationManager notificationManager;
+    final private int id;
+    final private NotificationCompat.Builder playingBuilder;
+    final private NotificationCompat.Builder pausedBuilder;
+    final private Handler handler;
+
+    // desired state, guarded by this
+    private String title;
+    private String artist;
+    private String album;
+    private Bitmap largeIcon;
+    private int contentVersion = 0;
+    private boolean playing = false;
+    private boolean scheduled = false;
+    private Notification playingNotification;
+    private Notification pausedNotification;
+
+    // last posted state
+    private int postedVersion = -1;
+    private boolean postedPlaying = false;
+
+    private long requested = 0;
+    private long coalesced = 0;
+    private long unchanged = 0;
+    private long posted = 0;
+    private long built = 0;
+
+    final private Runnable flush = this::flush;
+
+    NotificationRenderer(@NonNull final NotificationManager notificationManager,
+                         final int id,
+                         @NonNull final NotificationCompat.Builder playingBuilder,
+                         @NonNull final NotificationCompat.Builder pausedBuilder,
+                         @NonNull final Handler handler) {
+        this.notificationManager = notificationManager;
+        this.id = id;
+        this.playingBuilder = playingBuilder;
+        this.pausedBuilder = pausedBuilder;
+        this.handler = handler;
+    }
+
+    synchronized void setContent(final String title, final String artist, final String album, final Bitmap largeIcon) {
+        if (TextUtils.equals(title, this.title) && TextUtils.equals(artist, this.artist)
+                && TextUtils.equals(album, this.album) && largeIcon == this.largeIcon) return;
+        this.title = title;
+        this.artist = artist;
+        this.album = album;
+        this.largeIcon = largeIcon;
+        for (final NotificationCompat.Builder builder : new NotificationCompat.Builder[]{playingBuilder, pausedBuilder}) {
+            builder.setContentTitle(title);
+            builder.setContentText(artist);
+            builder.setSubText(album);
+            builder.setLargeIcon(largeIcon);
+        }
+        playingNotification = null;
+        pausedNotification = null;
+        contentVersion++;
+    }
+
+    // One call per former unconditional notify, posts the content as well
+    synchronized void setPlaying(final boolean playing) {
+        this.playing = playing;
+        requested++;
+        schedule();
+    }
+
+    synchronized void cancel() {
+        handler.removeCallbacks(flush);
+        scheduled = false;
+        postedVersion = -1;
+        notificationManager.cancel(id);
+    }
+
+    synchronized Map<String, Object> getStats() {
+        final Map<String, Object> stats = new HashMap<>();
+        stats.put("requested", requested);
+        stats.put("coalesced", coalesced);
+        stats.put("unchanged", unchanged);
+        stats.put("posted", posted);
+        stats.put("built", built);
+        // notify IPCs skipped compared to one per request
+        stats.put("avoided", coalesced + unchanged);
+        return stats;
+    }
+
+    private void schedule() {
+        if (scheduled) {
+            coalesced++;
+            return;
+        }
+        scheduled = true;
+        handler.postDelayed(flush, COALESCE_MS);
+    }
+
+    // Runs on [handler], holding the lock so a concurrent cancel() cannot be overtaken
+    private synchronized void flush() {
+        scheduled = false;
+        if (postedVersion == contentVersion && postedPlaying == playing) {
+            unchanged++;
+            return;
+        }
+        final Notification notification;
+        if (playing) {
+            if (playingNotification == null) {
+                playingNotification = playingBuilder.build();
+                built++;
+            }
+            notification = playingNotification;
+        } else {
+            if (pausedNotification == null) {
+                pausedNotification = pausedBuilder.build();
+                built++;
+            }
+            notification = pausedNotification;
+        }
+        postedVersion = contentVersion;
+        postedPlaying = playing;
+        posted++;
+        notificationManager.notify(id, notification);
+    }
+}
@@ -0,0 +1,155 @@
+package com.johngu.music.Service;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+// Play order of MediaService, so skips and completions resolve without Dart.
+// Holds the tracks in list order and the order they play in: the list itself
+// for repeat and repeat one, for shuffle a permutation starting at the current
+// track, drawn again once it ran out. Every method is atomic, callers that need
+// several of them to agree hold the queue's monitor around them.
+final class PlayQueue<T> {
+    // Same order as MediaPlayerSequenceMode in Dart, sent as its index
+    static final int MODE_REPEAT = 0;
+    static final int MODE_SHUFFLE = 1;
+    static final int MODE_REPEAT_ONE = 2;
+
+    static final int NONE = -1;
+    static private final int[] EMPTY = new int[0];
+
+    final private Random random;
+    private List<T> items = Collections.emptyList();
+    private int[] order = EMPTY;
+    // into order, NONE until a track of the queue is current
+    private int position = NONE;
+    private int mode = MODE_REPEAT;
+
+    PlayQueue(final Random random) {
+        this.random = random;
+    }
+
+    // [index] is the current track, NONE when it is not part of [items]
+    synchronized void set(final List<T> items, final int index) {
+        this.items = items;
+        arrange(index);
+    }
+
+    synchronized void setMode(final int mode) {
+        if (mode == this.mode) return;
+        final int index = getIndex();
+        this.mode = mode;
+        arrange(index);
+    }
+
+    synchronized int getMode() {
+        return mode;
+    }
+
+    synchronized boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    synchronized int size() {
+        return items.size();
+    }
+
+    // null for NONE
+    synchronized T get(final int index) {
+        return index < 0 || index >= items.size() ? null : items.get(index);
+    }
+
+    synchronized int getIndex() {
+        return position == NONE ? NONE : order[position];
+    }
+
+    // Makes [index] the current track, NONE when it is out of range
+    synchronized int select(final int index) {
+        if (index < 0 || index >= items.size()) return NONE;
+        if (mode == MODE_SHUFFLE) {
+            // a picked track starts a new round
+            arrange(index);
+        } else {
+            position = index;
+        }
+        return index;
+    }
+
+    // Skip forward, leaves a repeated track too
+    synchronized int next() {
+        if (items.isEmpty()) return NONE;
+        if (position + 1 < order.length) {
+            position++;
+        } else if (mode == MODE_SHUFFLE) {
+            shuffle(order[position]);
+        } else {
+            position = 0;
+        }
+        return order[position];
+    }
+
+    synchronized int previous() {
+        if (items.isEmpty()) return NONE;
+        position = position > 0 ? position - 1 : order.length - 1;
+        return order[position];
+    }
+
+    // The current track ended
+    synchronized int completed() {
+        if (items.isEmpty()) return NONE;
+        if (mode == MODE_REPEAT_ONE && position != NONE) return order[position];
+        return next();
+    }
+
+    // Up to [count] tracks completed() runs into, without moving. Empty for
+    // repeat one, stops where shuffle draws again, that order is not known yet
+    synchronized int[] upcoming(final int count) {
+        if (items.isEmpty() || mode == MODE_REPEAT_ONE) return EMPTY;
+        final int available = mode == MODE_SHUFFLE || position == NONE
+                ? order.length - 1 - position : order.length - 1;
+        final int n = Math.min(count, available);
+        if (n <= 0) return EMPTY;
+        final int[] indices = new int[n];
+        for (int i = 0; i < n; i++) indices[i] = order[(position + 1 + i) % order.length];
+        return indices;
+    }
+
+    private void arrange(final int index) {
+        final int size = items.size();
+        final int current = index >= 0 && index < size ? index : NONE;
+        order = new int[size];
+        for (int i = 0; i < size; i++) order[i] = i;
+        if (mode != MODE_SHUFFLE) {
+            position = current;
+            return;
+        }
+        shuffle(NONE);
+        if (current == NONE) {
+            position = NONE;
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            if (order[i] != current) continue;
+            order[i] = order[0];
+            order[0] = current;
+            break;
+        }
+        position = 0;
+    }
+
+    // New round in [order], not starting with [previous] when there is a choice
+    private void shuffle(final int previous) {
+        for (int i = order.length - 1; i > 0; i--) {
+            final int j = random.nextInt(i + 1);
+            final int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        if (order.length > 1 && order[0] == previous) {
+            final int j = 1 + random.nextInt(order.length - 1);
+            order[0] = order[j];
+            order[j] = previous;
+        }
+        position = 0;
+    }
+}
@@ -0,0 +1,297 @@
+package com.johngu.music.Service;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Playback state machine of MediaService over a PlayerEngine:
+//   NONE -setDataSource-> CONNECTING -play / seek-> BUFFERING -prepared-> PAUSED <-play / pause-> PLAYING
+// Preparing is lazy, a play or seek arriving before the engine is prepared is
+// folded into pendingStart / pendingSeek and applied once it is. Everything
+// around it (session, notification, focus, fades, Dart) goes through Host, so
+// the machine runs on a plain JVM with a fake engine.
+// Commands run on the single command thread only, getters are safe anywhere.
+final class PlaybackController {
+    // Same values as PlaybackStateCompat, handed to the session and Dart as they are
+    static final int STATE_NONE = 0;
+    static final int STATE_PAUSED = 2;
+    static final int STATE_PLAYING = 3;
+    static final int STATE_BUFFERING = 6;
+    static final int STATE_CONNECTING = 8;
+
+    static final int INVALID_POSITION = 0;
+    static private final int NO_PENDING_SEEK = -1;
+
+    interface Host {
+        // [changed] when [state] differs from the previous one
+        void onPlaybackState(int state, long position, boolean changed);
+
+        // A StateEventCodec event for Dart
+        void postState(int event, int state, int position, int duration, int timeToFirstAudio);
+
+        // false when focus was denied or will only be granted later
+        boolean requestFocus();
+
+        // Right before start(), sets the volume and fades in
+        void beforeStart(PlayerEngine engine);
+
+        void onPlayingChanged(boolean playing);
+
+        // 0 pauses at once
+        int getFadeOutMs();
+
+        // [onDone] may run on any thread
+        void fadeOut(PlayerEngine engine, int durationMs, Runnable onDone);
+
+        // [engine] was paused, its focus is released unless [keepFocus]
+        void onPausedNow(PlayerEngine engine, boolean keepFocus);
+
+        // [engine] is about to be reset
+        void onReset(PlayerEngine engine);
+
+        // Prepared and paused, a next track may be chained now
+        void onReady();
+    }
+
+    final private Host host;
+    // follow-up commands, the command thread itself
+    final private Executor executor;
+    final private PlaybackMetrics metrics;
+
+    // Swapped on gapless and crossfade transitions
+    private volatile PlayerEngine engine;
+    private volatile int playbackState = STATE_NONE;
+
+    private boolean pendingStart = false;
+    private int pendingSeek = NO_PENDING_SEEK;
+    // bumped by play / pause / reset, a pending fade-out pause only runs if unchanged
+    private int fadeGeneration = 0;
+    // System.nanoTime() of the binder setDataSource, moved up to a later play
+    // request, 0 once the track started
+    final private AtomicLong requestedAt = new AtomicLong();
+    private long prepareStartedAt = 0;
+    // bumped by every prepareAsync(), an onPrepared of an earlier one is stale
+    private volatile int prepareToken = 0;
+    // set before a pause for a transient focus loss, focus comes back later
+    private volatile boolean pausedForFocusLoss = false;
+
+    PlaybackController(final PlayerEngine engine,
+                       final Host host,
+                       final Executor executor,
+                       final PlaybackMetrics metrics) {
+        this.engine = engine;
+        this.host = host;
+        this.executor = executor;
+        this.metrics = metrics;
+    }
+
+    PlayerEngine getEngine() {
+        return engine;
+    }
+
+    int getState() {
+        return playbackState;
+    }
+
+    // PLAYING or PAUSED, the engine has a position and duration
+    boolean isPrepared() {
+        final int state = playbackState;
+        return state == STATE_PLAYING || state == STATE_PAUSED;
+    }
+
+    // Engine callback thread, captured when onPrepared arrives
+    int getPrepareToken() {
+        return prepareToken;
+    }
+
+    // Any thread, starts the time-to-first-audio clock
+    void markRequested() {
+        requestedAt.set(System.nanoTime());
+    }
+
+    // Any thread, a track loaded long before its play is timed from the play
+    void markPlayRequested() {
+        final long at = requestedAt.get();
+        if (at != 0) requestedAt.compareAndSet(at, System.nanoTime());
+    }
+
+    // Any thread, the next pause keeps focus for its return
+    void setPausedForFocusLoss(final boolean paused) {
+        pausedForFocusLoss = paused;
+    }
+
+    void setState(final int state, final long position) {
+        final boolean changed = playbackState != state;
+        playbackState = state;
+        host.onPlaybackState(state, position, changed);
+    }
+
+    void setDataSource(final String path) {
+        try {
+            setState(STATE_CONNECTING, INVALID_POSITION);
+            final long start = System.nanoTime();
+            engine.setDataSource(path);
+            metrics.record(PlaybackMetrics.SET_DATA_SOURCE, start);
+            host.postState(StateEventCodec.EVENT_STATE, StateEventCodec.STATE_PAUSED,
+                    StateEventCodec.NONE, StateEventCodec.NONE, StateEventCodec.NONE);
+        } catch (IOException e) {
+            e.printStackTrace();
+            // nothing to prepare, a play must not reach prepareAsync()
+            fail();
+        }
+    }
+
+    // The current engine reported an error, it only takes a reset now
+    void onError() {
+        fail();
+    }
+
+    // Back to NONE with nothing pending, Dart sees the track end
+    private void fail() {
+        pendingStart = false;
+        pendingSeek = NO_PENDING_SEEK;
+        fadeGeneration++;
+        setState(STATE_NONE, INVALID_POSITION);
+        host.postState(StateEventCodec.EVENT_STATE, StateEventCodec.STATE_END,
+                StateEventCodec.NONE, StateEventCodec.NONE, StateEventCodec.NONE);
+    }
+
+    void reset() {
+        host.onReset(engine);
+        pendingStart = false;
+        pendingSeek = NO_PENDING_SEEK;
+        fadeGeneration++;
+        engine.reset();
+        setState(STATE_NONE, INVALID_POSITION);
+        host.postState(StateEventCodec.EVENT_STATE, StateEventCodec.STATE_END,
+                StateEventCodec.NONE, StateEventCodec.NONE, StateEventCodec.NONE);
+    }
+
+    void play() {
+        final int state = playbackState;
+        if (state == STATE_CONNECTING) {
+            pendingStart = true;
+            prepare();
+            return;
+        } else if (state == STATE_BUFFERING) {
+            pendingStart = true;
+            return;
+        } else if (state != STATE_PAUSED) {
+            return;
+        }
+
+        final long focusStart = System.nanoTime();
+        final boolean granted = host.requestFocus();
+        metrics.record(PlaybackMetrics.AUDIO_FOCUS, focusStart);
+        if (!granted) return;
+
+        // drops a fade-out pause still in flight
+        fadeGeneration++;
+        host.beforeStart(engine);
+        final long startStart = System.nanoTime();
+        engine.start();
+        metrics.record(PlaybackMetrics.START, startStart);
+        if (engine.isPlaying()) {
+            final long requestedAt = this.requestedAt.getAndSet(0);
+            metrics.record(PlaybackMetrics.END_TO_END, requestedAt);
+            host.postState(StateEventCodec.EVENT_STATE, StateEventCodec.STATE_STARTED,
+                    engine.getCurrentPosition(), engine.getDuration(),
+                    requestedAt == 0 ? StateEventCodec.NONE : (int) ((System.nanoTime() - requestedAt) / 1000000));
+            setState(STATE_PLAYING, engine.getCurrentPosition());
+            host.onPlayingChanged(true);
+        }
+    }
+
+    void pause() {
+        pendingStart = false;
+        if (playbackState != STATE_PLAYING || !engine.isPlaying()) {
+            return;
+        }
+        // a transient loss gives focus back later, keep the request for it
+        final boolean keepFocus = pausedForFocusLoss;
+        pausedForFocusLoss = false;
+        host.postState(StateEventCodec.EVENT_STATE, StateEventCodec.STATE_PAUSED,
+                engine.getCurrentPosition(), engine.getDuration(), StateEventCodec.NONE);
+        setState(STATE_PAUSED, engine.getCurrentPosition());
+        host.onPlayingChanged(false);
+
+        final PlayerEngine player = engine;
+        final int fadeOutMs = host.getFadeOutMs();
+        if (fadeOutMs <= 0) {
+            pauseNow(player, keepFocus);
+            return;
+        }
+        // the command thread stays free while the fade runs, a play in between cancels the pause
+        final int generation = ++fadeGeneration;
+        host.fadeOut(player, fadeOutMs, () -> executor.execute(() -> {
+            if (generation == fadeGeneration && player == engine) pauseNow(player, keepFocus);
+        }));
+    }
+
+    // The actual pause once the fade-out ended
+    private void pauseNow(final PlayerEngine player, final boolean keepFocus) {
+        player.pause();
+        host.onPausedNow(player, keepFocus);
+    }
+
+    void seekTo(final int position) {
+        final int state = playbackState;
+        if (state == STATE_CONNECTING) {
+            pendingSeek = position;
+            prepare();
+        } else if (state == STATE_BUFFERING) {
+            pendingSeek = position;
+        } else if (state == STATE_PAUSED || state == STATE_PLAYING) {
+            engine.seekTo(position);
+        }
+    }
+
+    private void prepare() {
+        if (playbackState != STATE_CONNECTING) return;
+        setState(STATE_BUFFERING, INVALID_POSITION);
+        try {
+            prepareStartedAt = System.nanoTime();
+            prepareToken++;
+            engine.prepareAsync();
+        } catch (IllegalStateException e) {
+            e.printStackTrace();
+            // no onPrepared will come, BUFFERING would swallow every play from now on
+            fail();
+            return;
+        }
+        // onPrepared follows
+    }
+
+    // The current engine finished the prepareAsync() of [token]
+    void onPrepared(final int token) {
+        if (playbackState != STATE_BUFFERING || token != prepareToken) return;
+        metrics.record(PlaybackMetrics.PREPARE, prepareStartedAt);
+        prepareStartedAt = 0;
+        setState(STATE_PAUSED, INVALID_POSITION);
+        host.onReady();
+
+        if (pendingSeek != NO_PENDING_SEEK) {
+            engine.seekTo(pendingSeek);
+            pendingSeek = NO_PENDING_SEEK;
+        }
+        if (pendingStart) {
+            pendingStart = false;
+            play();
+        }
+    }
+
+    // The engine completed while playing, starts the same track over
+    void replay() {
+        if (playbackState != STATE_PLAYING) return;
+        engine.start();
+        host.postState(StateEventCodec.EVENT_STATE, StateEventCodec.STATE_STARTED,
+                engine.getCurrentPosition(), engine.getDuration(), StateEventCodec.NONE);
+        setState(STATE_PLAYING, engine.getCurrentPosition());
+    }
+
+    // [next] is already playing and becomes the current engine
+    void advanceTo(final PlayerEngine next) {
+        engine = next;
+        setState(STATE_PLAYING, next.getCurrentPosition());
+    }
+}
@@ -0,0 +1,85 @@
+package com.johngu.music.Service;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+// Where a track change spends its time, one histogram per stage:
+//   queueWait      command enqueued -> picked up by the executor
+//   setDataSource  MediaPlayer.setDataSource()
+//   prepare        prepareAsync() -> onPrepared
+//   audioFocus     focus request, often skipped while focus is held
+//   start          MediaPlayer.start()
+//   endToEnd       binder setDataSource, or a later start -> first "started" state
+// Timestamps come from System.nanoTime(), histograms hold microseconds.
+final class PlaybackMetrics {
+    static final int QUEUE_WAIT = 0;
+    static final int SET_DATA_SOURCE = 1;
+    static final int PREPARE = 2;
+    static final int AUDIO_FOCUS = 3;
+    static final int START = 4;
+    static final int END_TO_END = 5;
+
+    static private final String[] NAMES = {
+            "queueWait", "setDataSource", "prepare", "audioFocus", "start", "endToEnd"};
+
+    final private LatencyHistogram[] histograms = new LatencyHistogram[NAMES.length];
+    private volatile boolean enabled = true;
+
+    PlaybackMetrics() {
+        for (int i = 0; i < histograms.length; i++) histograms[i] = new LatencyHistogram();
+    }
+
+    void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    // [startNanos] from System.nanoTime(), 0 when the stage never started
+    void record(final int stage, final long startNanos) {
+        if (!enabled || startNanos == 0) return;
+        histograms[stage].record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    void reset() {
+        for (final LatencyHistogram histogram : histograms) histogram.reset();
+    }
+
+    // stage -> {count, meanMicros, p50Micros, p90Micros, p99Micros, maxMicros}
+    Map<String, Object> toMap() {
+        final Map<String, Object> metrics = new HashMap<>();
+        metrics.put("enabled", enabled);
+        for (int i = 0; i < NAMES.length; i++) {
+            final LatencyHistogram histogram = histograms[i];
+            final Map<String, Object> stage = new HashMap<>();
+            stage.put("count", histogram.getCount());
+            stage.put("meanMicros", histogram.getMean());
+            stage.put("p50Micros", histogram.getPercentile(50));
+            stage.put("p90Micros", histogram.getPercentile(90));
+            stage.put("p99Micros", histogram.getPercentile(99));
+            stage.put("maxMicros", histogram.getMax());
+            metrics.put(NAMES[i], stage);
+        }
+        return metrics;
+    }
+
+    void dump(final PrintWriter writer) {
+        writer.println("Playback latency (us)" + (enabled ? "" : " [disabled]"));
+        writer.println(String.format("  %-14s %8s %10s %10s %10s %10s %10s",
+                "stage", "count", "mean", "p50", "p90", "p99", "max"));
+        for (int i = 0; i < NAMES.length; i++) {
+            final LatencyHistogram histogram = histograms[i];
+            writer.println(String.format("  %-14s %8d %10d %10d %10d %10d %10d",
+                    NAMES[i],
+                    histogram.getCount(),
+                    histogram.getMean(),
+                    histogram.getPercentile(50),
+                    histogram.getPercentile(90),
+                    histogram.getPercentile(99),
+                    histogram.getMax()));
+        }
+    }
+}
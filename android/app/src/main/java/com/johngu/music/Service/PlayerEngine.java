@@ -0,0 +1,54 @@
+package com.johngu.music.Service;
+
+import java.io.IOException;
+
+// The calls MediaService makes on a player, free of android.* so the state
+// logic above it runs on a plain JVM. MediaPlayerEngine wraps the platform
+// MediaPlayer, FakePlayerEngine is a deterministic stand-in for stress runs.
+// Implementations follow MediaPlayer's state rules and throw
+// IllegalStateException where it would.
+interface PlayerEngine {
+    interface Listener {
+        void onPrepared(PlayerEngine engine);
+
+        void onCompletion(PlayerEngine engine);
+
+        // true when the error was handled, false lets onCompletion follow
+        boolean onError(PlayerEngine engine, int what, int extra);
+
+        void onSeekComplete(PlayerEngine engine);
+
+        void onBufferingUpdate(PlayerEngine engine, int percent);
+    }
+
+    void setDataSource(String path) throws IOException;
+
+    // Listener.onPrepared follows
+    void prepareAsync();
+
+    void start();
+
+    void pause();
+
+    // Listener.onSeekComplete follows
+    void seekTo(int position);
+
+    void reset();
+
+    void release();
+
+    boolean isPlaying();
+
+    int getCurrentPosition();
+
+    int getDuration();
+
+    void setLooping(boolean looping);
+
+    boolean isLooping();
+
+    void setVolume(float volume);
+
+    // Gapless hand-over once this one completes, null unchains. Both engines of the same kind
+    void setNextEngine(PlayerEngine next);
+}
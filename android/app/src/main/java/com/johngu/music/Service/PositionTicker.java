@@ -0,0 +1,71 @@
+package com.johngu.music.Service;
+
+import android.os.Handler;
+import android.support.v4.media.session.PlaybackStateCompat;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import io.flutter.plugin.common.EventChannel;
+
+// Pushes [position, duration, state] to Dart over an EventChannel so the
+// progress bar does not poll getCurrentPosition / getDuration / isPlaying.
+// Ticks only while playing, listening and in the foreground; state edges
+// (play, pause, seek) are sent immediately. Runs on the platform thread.
+final class PositionTicker implements Runnable {
+    static final int DEFAULT_INTERVAL_MS = 500;
+    static private final int MIN_INTERVAL_MS = 16;
+
+    interface Source {
+        int getPosition();
+
+        int getDuration();
+
+        int getState();
+    }
+
+    final private Handler handler;
+    final private Source source;
+    private EventChannel.EventSink sink;
+    private int intervalMs = DEFAULT_INTERVAL_MS;
+    private boolean foreground = true;
+
+    final private Runnable edge = new Runnable() {
+        @Override
+        public void run() {
+            handler.removeCallbacks(PositionTicker.this);
+            PositionTicker.this.run();
+        }
+    };
+
+    PositionTicker(@NonNull final Handler handler, @NonNull final Source source) {
+        this.handler = handler;
+        this.source = source;
+    }
+
+    final void setSink(@Nullable final EventChannel.EventSink sink, final int intervalMs) {
+        this.sink = sink;
+        this.intervalMs = Math.max(MIN_INTERVAL_MS, intervalMs);
+        edge.run();
+    }
+
+    final void setForeground(final boolean foreground) {
+        this.foreground = foreground;
+        edge.run();
+    }
+
+    // Safe from any thread
+    final void emitNow() {
+        handler.post(edge);
+    }
+
+    @Override
+    public void run() {
+        if (sink == null || !foreground) return;
+        final int state = source.getState();
+        sink.success(new int[]{source.getPosition(), source.getDuration(), state});
+        if (state == PlaybackStateCompat.STATE_PLAYING) {
+            handler.postDelayed(this, intervalMs);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.johngu.music.Service;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Fixed layout of the binary "MediaPlayer/state" messages, five little-endian int32:
+//   event | state | position | duration | timeToFirstAudio
+// Absent values are NONE. Mirrors the map payload of the "State" / "onSeekComplete" methods.
+final class StateEventCodec {
+    static final int EVENT_STATE = 0;
+    static final int EVENT_SEEK_COMPLETE = 1;
+
+    static final int STATE_END = 0;
+    static final int STATE_STARTED = 1;
+    static final int STATE_PAUSED = 2;
+
+    static final int NONE = -1;
+    static final int SIZE = 5 * 4;
+
+    // The messenger sends buffer.position() bytes, so the buffer is left unflipped
+    static ByteBuffer encode(final int event,
+                             final int state,
+                             final int position,
+                             final int duration,
+                             final int timeToFirstAudio) {
+        return ByteBuffer.allocateDirect(SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(event)
+                .putInt(state)
+                .putInt(position)
+                .putInt(duration)
+                .putInt(timeToFirstAudio);
+    }
+
+    static String stateName(final int state) {
+        switch (state) {
+            case STATE_STARTED:
+                return "started";
+            case STATE_PAUSED:
+                return "paused";
+            default:
+                return "end";
+        }
+    }
+
+    static String eventName(final int event) {
+        return event == EVENT_SEEK_COMPLETE ? "onSeekComplete" : "State";
+    }
+}
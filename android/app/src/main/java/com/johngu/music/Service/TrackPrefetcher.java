@@ -0,0 +1,137 @@
+package com.johngu.music.Service;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Reads the head of the upcoming tracks so their prepare() finds the header
+// and first seconds in the page cache instead of waiting on a slow SD card or
+// USB drive. One low-priority thread reads the files in queue order, at most
+// bytesPerTrack each and budgetBytes in total. Every prefetch() replaces the
+// previous one, a pass in progress stops at its next chunk. Files read
+// recently are skipped, the kernel most likely still has them.
+final class TrackPrefetcher {
+    static final int DEFAULT_BYTES_PER_TRACK = 512 * 1024;
+    static final int DEFAULT_BUDGET_BYTES = 4 * 1024 * 1024;
+    static private final int CHUNK_BYTES = 64 * 1024;
+    static private final long WARM_MS = 5 * 60 * 1000;
+    static private final int WARM_ENTRIES = 64;
+
+    final private ExecutorService executor;
+    // bumped by every prefetch() / cancel(), a pass only runs while it is unchanged
+    final private AtomicInteger generation = new AtomicInteger();
+
+    // prefetch thread only
+    final private ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_BYTES);
+    // path:mtime -> currentTimeMillis it was read
+    final private Map<String, Long> warm = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Long> eldest) {
+            return size() > WARM_ENTRIES;
+        }
+    };
+
+    // guarded by this
+    private long requests = 0;
+    private long files = 0;
+    private long skipped = 0;
+    private long cancelled = 0;
+    private long bytes = 0;
+    private long busyMicros = 0;
+
+    TrackPrefetcher(final ThreadFactory threadFactory) {
+        executor = Executors.newSingleThreadExecutor(threadFactory);
+    }
+
+    // [paths] in the order they will play, an empty list only cancels
+    void prefetch(final List<String> paths, final int bytesPerTrack, final int budgetBytes) {
+        final int current = generation.incrementAndGet();
+        synchronized (this) {
+            requests++;
+        }
+        if (paths.isEmpty() || bytesPerTrack <= 0 || budgetBytes <= 0) return;
+        final List<String> queue = new ArrayList<>(paths);
+        executor.execute(() -> run(queue, current, bytesPerTrack, budgetBytes));
+    }
+
+    void cancel() {
+        generation.incrementAndGet();
+    }
+
+    void shutdown() {
+        generation.incrementAndGet();
+        executor.shutdownNow();
+    }
+
+    synchronized Map<String, Object> getStats() {
+        final Map<String, Object> stats = new HashMap<>();
+        stats.put("requests", requests);
+        stats.put("files", files);
+        stats.put("skipped", skipped);
+        stats.put("cancelled", cancelled);
+        stats.put("bytes", bytes);
+        stats.put("busyMs", busyMicros / 1000);
+        return stats;
+    }
+
+    private void run(final List<String> paths, final int current, final int bytesPerTrack, final int budgetBytes) {
+        final long start = System.nanoTime();
+        long budget = budgetBytes;
+        for (final String path : paths) {
+            if (budget <= 0 || generation.get() != current) break;
+            final File file = new File(path);
+            final String key = path + ':' + file.lastModified();
+            final long now = System.currentTimeMillis();
+            final Long readAt = warm.get(key);
+            if (readAt != null && now - readAt < WARM_MS) {
+                synchronized (this) {
+                    skipped++;
+                }
+                continue;
+            }
+            final long read = read(file, Math.min(bytesPerTrack, budget), current);
+            // missing or unreadable, prepare() reports it when the track comes up
+            if (read < 0) continue;
+            budget -= read;
+            synchronized (this) {
+                bytes += read;
+                if (generation.get() == current) files++;
+            }
+            if (generation.get() == current) warm.put(key, now);
+        }
+        synchronized (this) {
+            if (generation.get() != current) cancelled++;
+            busyMicros += (System.nanoTime() - start) / 1000;
+        }
+    }
+
+    // Sequential reads pull the range into the page cache, the bytes are dropped.
+    // -1 when the file cannot be read
+    private long read(final File file, final long limit, final int current) {
+        long total = 0;
+        try (final FileInputStream inputStream = new FileInputStream(file);
+             final FileChannel channel = inputStream.getChannel()) {
+            while (total < limit && generation.get() == current) {
+                buffer.clear();
+                buffer.limit((int) Math.min(CHUNK_BYTES, limit - total));
+                final int n = channel.read(buffer);
+                if (n < 0) break;
+                total += n;
+            }
+        } catch (IOException e) {
+            return -1;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,198 @@
+package com.johngu.music.Service;
+
+import android.annotation.TargetApi;
+import android.media.MediaPlayer;
+import android.media.VolumeShaper;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+// Fades a player in or out without blocking the command executor.
+// On O and later a VolumeShaper ramps the gain inside the audio mixer, so the
+// fade is sample accurate and multiplies whatever volume the player was set to.
+// Older devices step setVolume() every STEP_MS from a dedicated handler thread.
+// A fade-out holds the player at gain 0 until cancel() once it has been paused.
+// Engines other than MediaPlayerEngine always take the timer path.
+final class VolumeFader {
+    static private final int STEP_MS = 16;
+
+    interface BaseVolume {
+        // user volume with ducking applied, the gain the fades scale
+        float get();
+    }
+
+    final private BaseVolume baseVolume;
+    final private HandlerThread thread = new HandlerThread("VolumeFader");
+    final private Handler handler;
+    // running or held fades, guarded by itself
+    final private Map<PlayerEngine, Fade> fades = new IdentityHashMap<>();
+
+    VolumeFader(@NonNull final BaseVolume baseVolume) {
+        this.baseVolume = baseVolume;
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    // Call before start(), a fade-out still running on [mp] is reversed from its current gain
+    void fadeIn(@NonNull final PlayerEngine mp, final int durationMs) {
+        final Fade previous = remove(mp);
+        final float from = previous == null ? 0.f : previous.gain();
+        if (durationMs <= 0) {
+            if (previous != null) previous.stop(true);
+            return;
+        }
+        handOver(mp, previous, new Fade(mp, from, 1.f, durationMs, null));
+    }
+
+    // [onDone] runs on the fader thread once the gain reached 0
+    void fadeOut(@NonNull final PlayerEngine mp, final int durationMs, @NonNull final Runnable onDone) {
+        final Fade previous = remove(mp);
+        final float from = previous == null ? 1.f : previous.gain();
+        handOver(mp, previous, new Fade(mp, from, 0.f, Math.max(1, durationMs), onDone));
+    }
+
+    // Drops any fade of [mp] and restores its volume, for a paused or reset player
+    void cancel(@NonNull final PlayerEngine mp) {
+        final Fade fade = remove(mp);
+        if (fade != null) fade.stop(true);
+    }
+
+    void quit() {
+        synchronized (fades) {
+            fades.clear();
+        }
+        handler.removeCallbacksAndMessages(null);
+        thread.quit();
+    }
+
+    // Shapers multiply, so the old one is closed first or the gain would dip to
+    // its square. Timer steps overwrite each other, there the old one stops
+    // after the new one took over, so the gain never jumps to full in between
+    private void handOver(final PlayerEngine mp, @Nullable final Fade previous, final Fade fade) {
+        if (previous != null && previous.shaper != null) previous.stop(false);
+        start(mp, fade);
+        if (previous != null) previous.stop(false);
+    }
+
+    private void start(final PlayerEngine mp, final Fade fade) {
+        synchronized (fades) {
+            fades.put(mp, fade);
+        }
+        fade.start();
+    }
+
+    @Nullable
+    private Fade remove(final PlayerEngine mp) {
+        synchronized (fades) {
+            return fades.remove(mp);
+        }
+    }
+
+    private final class Fade implements Runnable {
+        final PlayerEngine mp;
+        final float from;
+        final float to;
+        final int durationMs;
+        final Runnable onDone;
+        long startedAt;
+        Object shaper; // VolumeShaper, typed loosely for pre-O class verification
+
+        Fade(final PlayerEngine mp, final float from, final float to, final int durationMs, final Runnable onDone) {
+            this.mp = mp;
+            this.from = from;
+            this.to = to;
+            this.durationMs = durationMs;
+            this.onDone = onDone;
+        }
+
+        final void start() {
+            startedAt = SystemClock.uptimeMillis();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && mp instanceof MediaPlayerEngine) {
+                try {
+                    shaper = createShaper(((MediaPlayerEngine) mp).mediaPlayer);
+                } catch (IllegalStateException e) {
+                    shaper = null;
+                }
+            }
+            if (shaper == null) {
+                setVolume(from);
+                handler.postDelayed(this, STEP_MS);
+            } else {
+                handler.postDelayed(this, durationMs);
+            }
+        }
+
+        @TargetApi(Build.VERSION_CODES.O)
+        private VolumeShaper createShaper(final MediaPlayer mediaPlayer) {
+            final VolumeShaper.Configuration configuration = new VolumeShaper.Configuration.Builder()
+                    .setDuration(durationMs)
+                    .setCurve(new float[]{0.f, 1.f}, new float[]{from, to})
+                    .setInterpolatorType(VolumeShaper.Configuration.INTERPOLATOR_TYPE_LINEAR)
+                    .build();
+            final VolumeShaper volumeShaper = mediaPlayer.createVolumeShaper(configuration);
+            volumeShaper.apply(VolumeShaper.Operation.PLAY);
+            return volumeShaper;
+        }
+
+        final float gain() {
+            final float progress = Math.min(1.f, (SystemClock.uptimeMillis() - startedAt) / (float) durationMs);
+            return from + (to - from) * progress;
+        }
+
+        // Fader thread, a timer step or the end of a shaper fade
+        @Override
+        public void run() {
+            synchronized (fades) {
+                if (fades.get(mp) != this) return;
+            }
+            final float gain = gain();
+            final boolean done = gain == to;
+            if (shaper == null) {
+                setVolume(gain);
+                if (!done) {
+                    handler.postDelayed(this, STEP_MS);
+                    return;
+                }
+            }
+            if (to == 1.f) {
+                // a finished fade-in has nothing left to hold
+                synchronized (fades) {
+                    if (fades.get(mp) == this) fades.remove(mp);
+                }
+                stop(true);
+            }
+            if (onDone != null) onDone.run();
+        }
+
+        // [restore] sets the player back to the base volume, not wanted when another fade took over
+        final void stop(final boolean restore) {
+            handler.removeCallbacks(this);
+            if (shaper != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                try {
+                    ((VolumeShaper) shaper).close();
+                } catch (IllegalStateException e) {
+                    // player already released
+                }
+                shaper = null;
+            } else if (restore) {
+                setVolume(1.f);
+            }
+        }
+
+        private void setVolume(final float gain) {
+            final float volume = baseVolume.get() * gain;
+            try {
+                mp.setVolume(volume);
+            } catch (IllegalStateException e) {
+                // player already released
+            }
+        }
+    }
+}
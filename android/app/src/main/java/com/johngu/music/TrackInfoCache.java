@@ -0,0 +1,125 @@
+package com.johngu.music;
+
+import android.content.Context;
+import android.media.MediaMetadataRetriever;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.flutter.Log;
+
+// Tags of recently shown or played files, shared by the song tiles and the
+// notification so a file is parsed once per mtime instead of once per caller.
+public final class TrackInfoCache {
+    static private final int MAX_ENTRIES = 512;
+
+    static public final class TrackInfo {
+        static final TrackInfo EMPTY = new TrackInfo(null, null, null, 0, 0, null);
+
+        final public String title;
+        final public String artist;
+        final public String album;
+        final public int duration;
+        final public int bitrate;
+        final public String mime;
+
+        TrackInfo(final String title, final String artist, final String album,
+                  final int duration, final int bitrate, final String mime) {
+            this.title = title;
+            this.artist = artist;
+            this.album = album;
+            this.duration = duration;
+            this.bitrate = bitrate;
+            this.mime = mime;
+        }
+
+        static TrackInfo extract(final MediaMetadataRetriever mmr) {
+            return new TrackInfo(mmr.extractMetadata(MediaMetadataRetriever.METADATA_KEY_TITLE),
+                    mmr.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ARTIST),
+                    mmr.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ALBUM),
+                    parseInt(mmr.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION)),
+                    parseInt(mmr.extractMetadata(MediaMetadataRetriever.METADATA_KEY_BITRATE)),
+                    mmr.extractMetadata(MediaMetadataRetriever.METADATA_KEY_MIMETYPE));
+        }
+
+        Map<String, Object> toMap() {
+            final Map<String, Object> map = new HashMap<>();
+            map.put("title", title);
+            map.put("artist", artist);
+            map.put("album", album);
+            map.put("duration", duration);
+            map.put("bitrate", bitrate);
+            map.put("mime", mime);
+            return map;
+        }
+    }
+
+    static private final LruCache<String, TrackInfo> cache = new LruCache<>(MAX_ENTRIES);
+
+    // Tags of [filePath], plus the [thumbnailSize] artwork from the artwork
+    // cache in thumbnail[0] when > 0. The file is opened at most once for both.
+    @NonNull
+    static public TrackInfo get(@NonNull final Context context,
+                                @NonNull final String filePath,
+                                final int thumbnailSize,
+                                @NonNull final byte[][] thumbnail) {
+        final String key = key(filePath);
+        final TrackInfo cached = cache.get(key);
+        if (cached == null) return read(key, filePath, context, thumbnailSize, thumbnail);
+        if (thumbnailSize > 0)
+            thumbnail[0] = ArtworkCache.getInstance(context).getThumbnail(filePath, thumbnailSize);
+        return cached;
+    }
+
+    // {filePath, title, artist, album, duration, bitrate, mime} plus, when
+    // [thumbnailSize] > 0, "thumbnail" from the artwork cache
+    static Map<String, Object> getTrackInfo(@NonNull final Context context,
+                                            @NonNull final String filePath,
+                                            final int thumbnailSize) {
+        final byte[][] thumbnail = new byte[1][];
+        final TrackInfo info = get(context, filePath, thumbnailSize, thumbnail);
+        final Map<String, Object> map = info.toMap();
+        map.put("filePath", filePath);
+        if (thumbnailSize > 0) map.put("thumbnail", thumbnail[0]);
+        return map;
+    }
+
+    static private TrackInfo read(final String key,
+                                  final String filePath,
+                                  final Context context,
+                                  final int thumbnailSize,
+                                  final byte[][] thumbnail) {
+        final MediaMetadataRetriever mmr = Constants.MediaMetadataRetrieverPool.acquire();
+        TrackInfo info;
+        try {
+            mmr.setDataSource(filePath);
+            info = TrackInfo.extract(mmr);
+            if (thumbnailSize > 0)
+                thumbnail[0] = ArtworkCache.getInstance(context).getThumbnail(filePath, thumbnailSize, mmr);
+            Constants.MediaMetadataRetrieverPool.release(mmr);
+        } catch (RuntimeException e) {
+            Log.d("TrackInfoCache", "Failed to read " + filePath);
+            Constants.MediaMetadataRetrieverPool.discard(mmr);
+            info = TrackInfo.EMPTY;
+        }
+        cache.put(key, info);
+        return info;
+    }
+
+    static private String key(final String filePath) {
+        return filePath + ':' + new File(filePath).lastModified();
+    }
+
+    static private int parseInt(final String value) {
+        if (value == null) return 0;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
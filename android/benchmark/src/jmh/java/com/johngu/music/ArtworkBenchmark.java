@@ -0,0 +1,252 @@
+package com.johngu.music;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+// Artwork paths of ArtworkCache and PaletteService on the JVM. BitmapFactory
+// and Palette need a device, so ImageIO source subsampling stands in for
+// inSampleSize decoding and a median cut shaped like Palette's default
+// quantizer (5 bit channels, 16 colors, ~112x112 pixels) for the palette.
+// Absolute numbers differ from a phone, the ratios between variants do not.
+@State(Scope.Thread)
+public class ArtworkBenchmark {
+    static private final int PALETTE_SIZE = 128;
+    static private final int THUMBNAIL_SIZE = 512;
+
+    // edge of the square embedded artwork
+    @Param({"600", "1400"})
+    public int size;
+
+    private byte[] jpeg;
+    private int[] palettePixels;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        final BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, new Color(0x1e3a5f), size, size, new Color(0xe0b050)));
+        graphics.fillRect(0, 0, size, size);
+        // some texture so the encoder and the quantizer have work to do
+        final Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            graphics.setColor(new Color(random.nextInt(0xffffff)));
+            final int r = random.nextInt(size / 8) + 1;
+            graphics.fillOval(random.nextInt(size), random.nextInt(size), r, r);
+        }
+        graphics.dispose();
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", outputStream);
+        jpeg = outputStream.toByteArray();
+
+        final int sample = InSampleSize.calculate(size, size, PALETTE_SIZE, PALETTE_SIZE);
+        palettePixels = pixels(decode(jpeg, sample));
+    }
+
+    @Benchmark
+    public int calculateInSampleSize() {
+        return InSampleSize.calculate(size, size, THUMBNAIL_SIZE, THUMBNAIL_SIZE)
+                + InSampleSize.calculate(size, size, PALETTE_SIZE, PALETTE_SIZE);
+    }
+
+    @Benchmark
+    public BufferedImage decodeFull() throws IOException {
+        return decode(jpeg, 1);
+    }
+
+    @Benchmark
+    public BufferedImage decodeThumbnail() throws IOException {
+        return decode(jpeg, InSampleSize.calculate(size, size, THUMBNAIL_SIZE, THUMBNAIL_SIZE));
+    }
+
+    @Benchmark
+    public BufferedImage decodePaletteInput() throws IOException {
+        return decode(jpeg, InSampleSize.calculate(size, size, PALETTE_SIZE, PALETTE_SIZE));
+    }
+
+    @Benchmark
+    public int[] quantize() {
+        return MedianCut.quantize(palettePixels, 16);
+    }
+
+    // Decode plus palette, what PaletteService.generate() does per artwork
+    @Benchmark
+    public int[] palette() throws IOException {
+        final int sample = InSampleSize.calculate(size, size, PALETTE_SIZE, PALETTE_SIZE);
+        return MedianCut.quantize(pixels(decode(jpeg, sample)), 16);
+    }
+
+    static private BufferedImage decode(final byte[] data, final int sample) throws IOException {
+        try (final ImageInputStream inputStream = ImageIO.createImageInputStream(new ByteArrayInputStream(data))) {
+            final Iterator<ImageReader> readers = ImageIO.getImageReaders(inputStream);
+            final ImageReader reader = readers.next();
+            try {
+                reader.setInput(inputStream, true, true);
+                final ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(sample, sample, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // Palette scales its input down to ~112x112 pixels before quantizing
+    static private int[] pixels(final BufferedImage image) {
+        final int area = 112 * 112;
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final double scale = Math.min(1.0, Math.sqrt(area / (double) (width * height)));
+        final int scaledWidth = Math.max(1, (int) Math.ceil(width * scale));
+        final int scaledHeight = Math.max(1, (int) Math.ceil(height * scale));
+        final int[] pixels = new int[scaledWidth * scaledHeight];
+        for (int y = 0; y < scaledHeight; y++) {
+            for (int x = 0; x < scaledWidth; x++) {
+                pixels[y * scaledWidth + x] = image.getRGB(x * width / scaledWidth, y * height / scaledHeight);
+            }
+        }
+        return pixels;
+    }
+
+    // Median cut over a 15 bit color histogram, the shape of Palette's ColorCutQuantizer
+    static final class MedianCut {
+        static int[] quantize(final int[] pixels, final int maxColors) {
+            final int[] histogram = new int[1 << 15];
+            for (final int pixel : pixels) histogram[quantized(pixel)]++;
+            int distinct = 0;
+            for (final int count : histogram) if (count > 0) distinct++;
+            final int[] colors = new int[distinct];
+            distinct = 0;
+            for (int color = 0; color < histogram.length; color++) {
+                if (histogram[color] > 0) colors[distinct++] = color;
+            }
+            if (colors.length <= maxColors) return colors;
+
+            final PriorityQueue<Box> boxes = new PriorityQueue<>(maxColors,
+                    (a, b) -> Integer.compare(b.volume(), a.volume()));
+            boxes.add(new Box(colors, histogram, 0, colors.length - 1));
+            while (boxes.size() < maxColors) {
+                final Box box = boxes.poll();
+                if (box == null || !box.canSplit()) {
+                    if (box != null) boxes.add(box);
+                    break;
+                }
+                final Box other = box.split();
+                boxes.add(box);
+                boxes.add(other);
+            }
+            final int[] result = new int[boxes.size()];
+            int i = 0;
+            for (final Box box : boxes) result[i++] = box.average();
+            return result;
+        }
+
+        static private int quantized(final int argb) {
+            return (((argb >> 19) & 0x1f) << 10) | (((argb >> 11) & 0x1f) << 5) | ((argb >> 3) & 0x1f);
+        }
+
+        static private int component(final int color, final int shift) {
+            return (color >> shift) & 0x1f;
+        }
+
+        static final class Box {
+            final int[] colors;
+            final int[] histogram;
+            final int lower;
+            int upper;
+            int minR, maxR, minG, maxG, minB, maxB;
+
+            Box(final int[] colors, final int[] histogram, final int lower, final int upper) {
+                this.colors = colors;
+                this.histogram = histogram;
+                this.lower = lower;
+                this.upper = upper;
+                fit();
+            }
+
+            void fit() {
+                minR = minG = minB = Integer.MAX_VALUE;
+                maxR = maxG = maxB = Integer.MIN_VALUE;
+                for (int i = lower; i <= upper; i++) {
+                    final int color = colors[i];
+                    minR = Math.min(minR, component(color, 10));
+                    maxR = Math.max(maxR, component(color, 10));
+                    minG = Math.min(minG, component(color, 5));
+                    maxG = Math.max(maxG, component(color, 5));
+                    minB = Math.min(minB, component(color, 0));
+                    maxB = Math.max(maxB, component(color, 0));
+                }
+            }
+
+            int volume() {
+                return (maxR - minR + 1) * (maxG - minG + 1) * (maxB - minB + 1);
+            }
+
+            boolean canSplit() {
+                return upper > lower;
+            }
+
+            // Splits at the population median of the longest side, keeps the lower half
+            Box split() {
+                final int rangeR = maxR - minR;
+                final int rangeG = maxG - minG;
+                final int rangeB = maxB - minB;
+                final int shift = rangeR >= rangeG && rangeR >= rangeB ? 10 : rangeG >= rangeB ? 5 : 0;
+                final Integer[] sorted = new Integer[upper - lower + 1];
+                for (int i = lower; i <= upper; i++) sorted[i - lower] = colors[i];
+                Arrays.sort(sorted, (a, b) -> Integer.compare(component(a, shift), component(b, shift)));
+                int population = 0;
+                for (int i = 0; i < sorted.length; i++) {
+                    colors[lower + i] = sorted[i];
+                    population += histogram[sorted[i]];
+                }
+                int seen = 0;
+                int splitAt = lower;
+                for (int i = lower; i < upper; i++) {
+                    seen += histogram[colors[i]];
+                    if (seen >= population / 2) {
+                        splitAt = i;
+                        break;
+                    }
+                }
+                final Box other = new Box(colors, histogram, splitAt + 1, upper);
+                upper = splitAt;
+                fit();
+                return other;
+            }
+
+            int average() {
+                long r = 0, g = 0, b = 0, population = 0;
+                for (int i = lower; i <= upper; i++) {
+                    final int color = colors[i];
+                    final int count = histogram[color];
+                    r += component(color, 10) * count;
+                    g += component(color, 5) * count;
+                    b += component(color, 0) * count;
+                    population += count;
+                }
+                return (int) ((r / population) << 19 | (g / population) << 11 | (b / population) << 3);
+            }
+        }
+    }
+}
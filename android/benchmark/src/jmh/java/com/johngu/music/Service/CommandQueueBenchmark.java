@@ -0,0 +1,104 @@
+package com.johngu.music.Service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Commands through the single-thread MediaService executor, a burst at a time
+// the way a user scrubbing or mashing play / pause produces them. "mailbox"
+// coalesces superseded commands like the service does, "fifo" is the plain
+// LinkedBlockingQueue it replaced. Each command does [work] ns of busy work.
+@State(Scope.Thread)
+public class CommandQueueBenchmark {
+    static private final int BURST = 64;
+    static private final String[] SOURCES = {"/music/a.mp3", "/music/b.mp3"};
+
+    @Param({"mailbox", "fifo"})
+    public String queue;
+
+    @Param({"0", "20000"})
+    public int work;
+
+    private ThreadPoolExecutor executor;
+    private Command[] burst;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final BlockingQueue<Runnable> workQueue = queue.equals("mailbox")
+                ? new CommandMailbox()
+                : new LinkedBlockingQueue<>();
+        executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, workQueue);
+        executor.prestartAllCoreThreads();
+
+        // mostly seeks and toggles on the current source, a track change now and then
+        burst = new Command[BURST];
+        for (int i = 0; i < BURST; i++) {
+            final String source = SOURCES[i / (BURST / 2)];
+            final int kind;
+            if (i % (BURST / 2) == 0) kind = CommandMailbox.KIND_SET_DATA_SOURCE;
+            else if (i % 3 == 0) kind = i % 2 == 0 ? CommandMailbox.KIND_PLAY : CommandMailbox.KIND_PAUSE;
+            else if (i % 3 == 1) kind = CommandMailbox.KIND_SEEK;
+            else kind = CommandMailbox.KIND_OTHER;
+            burst[i] = new Command(source, kind, work);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(1, TimeUnit.SECONDS);
+    }
+
+    // Offers a burst and waits until the executor drained it
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void burst() throws InterruptedException {
+        for (final Command command : burst) executor.execute(command);
+        // not a Command, never coalesced, runs after everything that survived
+        final CountDownLatch drained = new CountDownLatch(1);
+        executor.execute(drained::countDown);
+        drained.await();
+    }
+
+    static final class Command implements CommandMailbox.Command {
+        final String dataSource;
+        final int kind;
+        final int workNanos;
+
+        Command(final String dataSource, final int kind, final int workNanos) {
+            this.dataSource = dataSource;
+            this.kind = kind;
+            this.workNanos = workNanos;
+        }
+
+        @Override
+        public int getKind() {
+            return kind;
+        }
+
+        @Override
+        public String getDataSource() {
+            return dataSource;
+        }
+
+        @Override
+        public void run() {
+            if (workNanos == 0) return;
+            final long until = System.nanoTime() + workNanos;
+            while (System.nanoTime() < until) {
+                // busy
+            }
+        }
+    }
+}
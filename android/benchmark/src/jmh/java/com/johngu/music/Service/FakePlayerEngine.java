@@ -0,0 +1,212 @@
+package com.johngu.music.Service;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+// Deterministic PlayerEngine for off-device runs. Follows MediaPlayer's state
+// diagram and throws IllegalStateException, counted in getViolations(), for
+// every call the real player rejects. Time only moves in advance(), callbacks
+// are handed to [callbacks] the way MediaPlayer posts them to its looper, so a
+// run is reproducible as long as the executors are. Paths ending in ".broken"
+// fail setDataSource like an unreadable file, ".corrupt" ones fail later in
+// prepare: onError, then onCompletion unless the listener handled it, as
+// MediaPlayer does.
+final class FakePlayerEngine implements PlayerEngine {
+    enum State {
+        IDLE, INITIALIZED, PREPARING, PREPARED, STARTED, PAUSED, COMPLETED, ERROR, END
+    }
+
+    // MediaPlayer.MEDIA_ERROR_UNKNOWN / MEDIA_ERROR_IO
+    static final int ERROR_UNKNOWN = 1;
+    static final int ERROR_IO = -1004;
+
+    final private Listener listener;
+    final private Executor callbacks;
+    final private int durationMs;
+
+    private State state = State.IDLE;
+    private String dataSource;
+    // bumped by reset / release, drops callbacks of the previous life
+    private int epoch = 0;
+    private int position = 0;
+    private boolean looping = false;
+    private float volume = 1.f;
+    private FakePlayerEngine next;
+    private long violations = 0;
+
+    FakePlayerEngine(final Listener listener, final Executor callbacks, final int durationMs) {
+        this.listener = listener;
+        this.callbacks = callbacks;
+        this.durationMs = durationMs;
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    synchronized long getViolations() {
+        return violations;
+    }
+
+    synchronized float getVolume() {
+        return volume;
+    }
+
+    @Override
+    public synchronized void setDataSource(final String path) throws IOException {
+        require("setDataSource", State.IDLE);
+        if (path.endsWith(".broken")) throw new IOException("Cannot open " + path);
+        dataSource = path;
+        state = State.INITIALIZED;
+    }
+
+    @Override
+    public synchronized void prepareAsync() {
+        require("prepareAsync", State.INITIALIZED);
+        state = State.PREPARING;
+        final int current = epoch;
+        final boolean corrupt = dataSource.endsWith(".corrupt");
+        callbacks.execute(() -> {
+            synchronized (this) {
+                if (epoch != current || state != State.PREPARING) return;
+                state = corrupt ? State.ERROR : State.PREPARED;
+            }
+            if (!corrupt) {
+                listener.onPrepared(this);
+            } else if (!listener.onError(this, ERROR_UNKNOWN, ERROR_IO)) {
+                synchronized (this) {
+                    if (epoch != current) return;
+                }
+                listener.onCompletion(this);
+            }
+        });
+    }
+
+    @Override
+    public synchronized void start() {
+        require("start", State.PREPARED, State.STARTED, State.PAUSED, State.COMPLETED);
+        if (state == State.COMPLETED) position = 0;
+        state = State.STARTED;
+    }
+
+    @Override
+    public synchronized void pause() {
+        require("pause", State.STARTED, State.PAUSED, State.COMPLETED);
+        if (state != State.COMPLETED) state = State.PAUSED;
+    }
+
+    @Override
+    public synchronized void seekTo(final int position) {
+        require("seekTo", State.PREPARED, State.STARTED, State.PAUSED, State.COMPLETED);
+        this.position = Math.max(0, Math.min(position, durationMs));
+        final int current = epoch;
+        callbacks.execute(() -> {
+            synchronized (this) {
+                if (epoch != current) return;
+            }
+            listener.onSeekComplete(this);
+        });
+    }
+
+    @Override
+    public synchronized void reset() {
+        require("reset", State.IDLE, State.INITIALIZED, State.PREPARING, State.PREPARED,
+                State.STARTED, State.PAUSED, State.COMPLETED, State.ERROR);
+        epoch++;
+        state = State.IDLE;
+        dataSource = null;
+        position = 0;
+        next = null;
+    }
+
+    @Override
+    public synchronized void release() {
+        epoch++;
+        state = State.END;
+        next = null;
+    }
+
+    @Override
+    public synchronized boolean isPlaying() {
+        // MediaPlayer only logs a call in the error state and answers false
+        require("isPlaying", State.IDLE, State.INITIALIZED, State.PREPARING, State.PREPARED,
+                State.STARTED, State.PAUSED, State.COMPLETED, State.ERROR);
+        return state == State.STARTED;
+    }
+
+    @Override
+    public synchronized int getCurrentPosition() {
+        require("getCurrentPosition", State.IDLE, State.INITIALIZED, State.PREPARING, State.PREPARED,
+                State.STARTED, State.PAUSED, State.COMPLETED);
+        return position;
+    }
+
+    @Override
+    public synchronized int getDuration() {
+        require("getDuration", State.PREPARED, State.STARTED, State.PAUSED, State.COMPLETED);
+        return durationMs;
+    }
+
+    @Override
+    public synchronized void setLooping(final boolean looping) {
+        this.looping = looping;
+    }
+
+    @Override
+    public synchronized boolean isLooping() {
+        return looping;
+    }
+
+    @Override
+    public synchronized void setVolume(final float volume) {
+        this.volume = volume;
+    }
+
+    @Override
+    public synchronized void setNextEngine(final PlayerEngine next) {
+        if (next != null) {
+            final FakePlayerEngine engine = (FakePlayerEngine) next;
+            if (engine.getState() != State.PREPARED) violation("setNextEngine");
+        }
+        this.next = (FakePlayerEngine) next;
+    }
+
+    // Plays [ms] further when started. Completion hands over to the next engine
+    void advance(final int ms) {
+        final FakePlayerEngine handOver;
+        final int current;
+        synchronized (this) {
+            if (state != State.STARTED) return;
+            position += ms;
+            if (position < durationMs) return;
+            if (looping) {
+                position %= durationMs;
+                return;
+            }
+            position = durationMs;
+            state = State.COMPLETED;
+            handOver = next;
+            next = null;
+            current = epoch;
+        }
+        if (handOver != null) handOver.start();
+        callbacks.execute(() -> {
+            synchronized (this) {
+                if (epoch != current) return;
+            }
+            listener.onCompletion(this);
+        });
+    }
+
+    private void require(final String method, final State... valid) {
+        for (final State s : valid) {
+            if (state == s) return;
+        }
+        violation(method);
+    }
+
+    private void violation(final String method) {
+        violations++;
+        throw new IllegalStateException(method + " called in state " + state);
+    }
+}
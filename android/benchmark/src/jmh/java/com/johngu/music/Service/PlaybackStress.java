@@ -0,0 +1,390 @@
+package com.johngu.music.Service;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Fires random commands at PlaybackController on FakePlayerEngine, wired like
+// MediaService: one command thread behind a CommandMailbox, engine callbacks
+// on their own thread, fades on a timer, tracks playing and completing in the
+// background. Besides play / pause / seek / load / reset the storm loses and
+// regains audio focus through AudioFocusState, the grant / skip decisions of
+// AudioFocusManager, in front of a system that holds back requests while a
+// call has focus. It loads tracks that fail in setDataSource or asynchronously
+// in prepare, and follows every completion with the next track the way the
+// native queue does.
+// Commands go out in bursts of BURST and the storm waits for the command
+// thread in between, so most of them reach the machine instead of being
+// coalesced away by the mailbox. Fails when the engine saw a call MediaPlayer
+// would reject, the session saw an impossible transition, or the machine does
+// not answer play / pause / focus / error as expected once the storm is over.
+//   gradle -p android/benchmark stress [-Pcommands=1000000] [-Pseed=7]
+public final class PlaybackStress {
+    static private final int TRACK_MS = 3000;
+    static private final int FADE_MS = 2;
+    static private final int TICK_MS = 50;
+    static private final int BURST = 2;
+
+    final private ThreadPoolExecutor commands;
+    final private CommandMailbox mailbox = new CommandMailbox();
+    final private ExecutorService callbacks = Executors.newSingleThreadExecutor();
+    final private ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    final private ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor();
+    final private PlaybackMetrics metrics = new PlaybackMetrics();
+    final private AtomicReference<String> currentDataSource = new AtomicReference<>(null);
+    final private List<FakePlayerEngine> engines = new ArrayList<>();
+    final private PlaybackController playback;
+    // callbacks thread only, picks the track a completion moves on to
+    final private Random queue;
+
+    final private AtomicLong executed = new AtomicLong();
+    final private AtomicLong reached = new AtomicLong();
+    final private AtomicLong transitions = new AtomicLong();
+    final private AtomicLong completions = new AtomicLong();
+    final private AtomicLong errors = new AtomicLong();
+    final private AtomicLong focusLosses = new AtomicLong();
+    final private AtomicLong focusDelayed = new AtomicLong();
+    final private List<String> failures = new ArrayList<>();
+    private int lastState = PlaybackController.STATE_NONE;
+
+    // another app holds focus for a while, a call: requests wait for it
+    private volatile boolean callActive = false;
+    final private AudioFocusState focus = new AudioFocusState(new AudioFocusState.System() {
+        @Override
+        public int request() {
+            // AudioFocusManager accepts a delayed gain
+            return callActive ? AudioFocusState.REQUEST_DELAYED : AudioFocusState.REQUEST_GRANTED;
+        }
+
+        @Override
+        public void abandon() {
+        }
+    });
+    // MediaService.isPlayingBeforeLossFocus
+    private volatile boolean playingBeforeLoss = false;
+    private volatile boolean autoAdvance = true;
+
+    PlaybackStress(final long seed) {
+        commands = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS, mailbox);
+        final FakePlayerEngine engine = new FakePlayerEngine(listener, callbacks, TRACK_MS);
+        engines.add(engine);
+        playback = new PlaybackController(engine, host, commands, metrics);
+        queue = new Random(seed + 1);
+    }
+
+    // Command thread only, as in MediaService
+    final private PlaybackController.Host host = new PlaybackController.Host() {
+        @Override
+        public void onPlaybackState(final int state, final long position, final boolean changed) {
+            if (!changed) return;
+            transitions.incrementAndGet();
+            if (!legal(lastState, state)) fail("Illegal transition " + lastState + " -> " + state);
+            lastState = state;
+        }
+
+        @Override
+        public void postState(final int event, final int state, final int position, final int duration,
+                              final int timeToFirstAudio) {
+            StateEventCodec.encode(event, state, position, duration, timeToFirstAudio);
+        }
+
+        @Override
+        public boolean requestFocus() {
+            final int res = focus.request();
+            if (res == AudioFocusState.REQUEST_DELAYED) {
+                focusDelayed.incrementAndGet();
+                // starts from focusGained
+                playingBeforeLoss = true;
+            }
+            return res == AudioFocusState.REQUEST_GRANTED;
+        }
+
+        @Override
+        public void beforeStart(final PlayerEngine engine) {
+            engine.setVolume(1.f);
+        }
+
+        @Override
+        public void onPlayingChanged(final boolean playing) {
+        }
+
+        @Override
+        public int getFadeOutMs() {
+            return FADE_MS;
+        }
+
+        @Override
+        public void fadeOut(final PlayerEngine engine, final int durationMs, final Runnable onDone) {
+            timer.schedule(onDone, durationMs, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void onPausedNow(final PlayerEngine engine, final boolean keepFocus) {
+        }
+
+        @Override
+        public void onReset(final PlayerEngine engine) {
+        }
+
+        @Override
+        public void onReady() {
+        }
+    };
+
+    final private PlayerEngine.Listener listener = new PlayerEngine.Listener() {
+        @Override
+        public void onPrepared(final PlayerEngine engine) {
+            final int token = playback.getPrepareToken();
+            execute(CommandMailbox.KIND_OTHER, () -> playback.onPrepared(token));
+        }
+
+        @Override
+        public void onCompletion(final PlayerEngine engine) {
+            completions.incrementAndGet();
+            if (!autoAdvance) return;
+            // the native queue moves on and keeps playing
+            setDataSource("/music/" + queue.nextInt(50) + ".mp3");
+            execute(CommandMailbox.KIND_PLAY, playback::play);
+        }
+
+        @Override
+        public boolean onError(final PlayerEngine engine, final int what, final int extra) {
+            errors.incrementAndGet();
+            execute(CommandMailbox.KIND_OTHER, () -> {
+                if (engine == playback.getEngine()) playback.onError();
+            });
+            // as MediaService, completion follows
+            return false;
+        }
+
+        @Override
+        public void onSeekComplete(final PlayerEngine engine) {
+        }
+
+        @Override
+        public void onBufferingUpdate(final PlayerEngine engine, final int percent) {
+        }
+    };
+
+    static private boolean legal(final int from, final int to) {
+        switch (to) {
+            case PlaybackController.STATE_NONE:
+                return true;
+            case PlaybackController.STATE_CONNECTING:
+                return from == PlaybackController.STATE_NONE;
+            case PlaybackController.STATE_BUFFERING:
+                return from == PlaybackController.STATE_CONNECTING;
+            case PlaybackController.STATE_PAUSED:
+                return from == PlaybackController.STATE_BUFFERING || from == PlaybackController.STATE_PLAYING;
+            case PlaybackController.STATE_PLAYING:
+                return from == PlaybackController.STATE_PAUSED;
+            default:
+                return false;
+        }
+    }
+
+    private synchronized void fail(final String failure) {
+        if (failures.size() < 20) failures.add(failure);
+    }
+
+    // Same guard as MediaService.MediaPlayerRunnable
+    private void execute(final int kind, final Runnable sub) {
+        final String dataSource = currentDataSource.get();
+        final long enqueuedAt = System.nanoTime();
+        commands.execute(new CommandMailbox.Command() {
+            @Override
+            public int getKind() {
+                return kind;
+            }
+
+            @Override
+            public String getDataSource() {
+                return dataSource;
+            }
+
+            @Override
+            public void run() {
+                executed.incrementAndGet();
+                metrics.record(PlaybackMetrics.QUEUE_WAIT, enqueuedAt);
+                final String source = currentDataSource.get();
+                if (source != null && !source.equals(dataSource)) return;
+                reached.incrementAndGet();
+                sub.run();
+            }
+        });
+    }
+
+    // What the binder does for setDataSource, storm and completions load one at a time
+    private synchronized void setDataSource(final String path) {
+        playback.markRequested();
+        currentDataSource.set(path);
+        execute(CommandMailbox.KIND_RESET, playback::reset);
+        execute(CommandMailbox.KIND_SET_DATA_SOURCE, () -> playback.setDataSource(path));
+    }
+
+    // What MediaService.start does
+    private void play() {
+        playback.markPlayRequested();
+        execute(CommandMailbox.KIND_PLAY, playback::play);
+    }
+
+    // AudioFocusManager.onAudioFocusChange and MediaService's listener, the
+    // storm thread stands in for the main thread. The system only tells the
+    // owner, a transient loss is a call taking focus
+    private void focusLost(final boolean transientLoss) {
+        if (!focus.isOwned()) return;
+        focusLosses.incrementAndGet();
+        callActive = transientLoss;
+        focus.onLoss(transientLoss);
+        if (playback.getEngine().isPlaying()) {
+            playingBeforeLoss = transientLoss;
+            playback.setPausedForFocusLoss(transientLoss);
+            execute(CommandMailbox.KIND_PAUSE, playback::pause);
+        } else {
+            playingBeforeLoss = false;
+        }
+    }
+
+    // The call ended, focus goes back to a request still in the stack
+    private void focusGained() {
+        if (!callActive) return;
+        callActive = false;
+        if (!focus.isRegistered()) return;
+        focus.onGain();
+        if (!playback.getEngine().isPlaying() && playingBeforeLoss) play();
+        playingBeforeLoss = false;
+    }
+
+    private void command(final Random random) {
+        final int roll = random.nextInt(100);
+        if (roll < 4) {
+            final int track = random.nextInt(50);
+            setDataSource("/music/" + track + (track == 0 ? ".broken" : track == 1 ? ".corrupt" : ".mp3"));
+        } else if (roll < 5) {
+            execute(CommandMailbox.KIND_RESET, playback::reset);
+        } else if (roll < 8) {
+            focusLost(random.nextBoolean());
+        } else if (roll < 11) {
+            focusGained();
+        } else if (roll < 42) {
+            play();
+        } else if (roll < 73) {
+            execute(CommandMailbox.KIND_PAUSE, playback::pause);
+        } else {
+            final int position = random.nextInt(TRACK_MS);
+            execute(CommandMailbox.KIND_SEEK, () -> playback.seekTo(position));
+        }
+    }
+
+    private void drainCommands() throws InterruptedException {
+        final CountDownLatch commandsDone = new CountDownLatch(1);
+        commands.execute(commandsDone::countDown);
+        commandsDone.await();
+    }
+
+    // Until commands, callbacks and fades ran dry
+    private void settle() throws InterruptedException {
+        for (int i = 0; i < 4; i++) {
+            Thread.sleep(FADE_MS * 4);
+            final CountDownLatch callbacksDone = new CountDownLatch(1);
+            callbacks.execute(callbacksDone::countDown);
+            callbacksDone.await();
+            drainCommands();
+        }
+    }
+
+    private void expect(final String step, final int state, final boolean playing) {
+        final boolean enginePlaying = playback.getEngine().isPlaying();
+        if (playback.getState() != state || enginePlaying != playing) {
+            fail(step + ": state " + playback.getState() + ", playing " + enginePlaying);
+        }
+    }
+
+    private boolean run(final int count, final long seed) throws InterruptedException {
+        final FakePlayerEngine engine = engines.get(0);
+        ticker.scheduleAtFixedRate(() -> engine.advance(TICK_MS), 1, 1, TimeUnit.MILLISECONDS);
+
+        final Random random = new Random(seed);
+        final long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            command(random);
+            if (i % BURST == BURST - 1) drainCommands();
+        }
+        final long offered = System.nanoTime() - start;
+        settle();
+        final long drained = System.nanoTime() - start;
+        final long stormReached = reached.get();
+
+        // whatever the storm left behind, the machine still answers. Time
+        // stands still from here on, no completion interferes
+        ticker.shutdownNow();
+        autoAdvance = false;
+        focusGained();
+        settle();
+
+        setDataSource("/music/final.corrupt");
+        play();
+        settle();
+        expect("prepare error", PlaybackController.STATE_NONE, false);
+
+        setDataSource("/music/final.mp3");
+        play();
+        settle();
+        expect("play", PlaybackController.STATE_PLAYING, true);
+        focusLost(true);
+        settle();
+        expect("transient focus loss", PlaybackController.STATE_PAUSED, false);
+        play();
+        settle();
+        expect("play while focus is lost", PlaybackController.STATE_PAUSED, false);
+        focusGained();
+        settle();
+        expect("focus regained", PlaybackController.STATE_PLAYING, true);
+        execute(CommandMailbox.KIND_PAUSE, playback::pause);
+        settle();
+        expect("pause", PlaybackController.STATE_PAUSED, false);
+
+        timer.shutdownNow();
+        commands.shutdownNow();
+        callbacks.shutdownNow();
+
+        long violations = 0;
+        for (final FakePlayerEngine e : engines) violations += e.getViolations();
+        if (violations > 0) fail(violations + " calls MediaPlayer would reject");
+
+        final Map<String, Object> queueStats = mailbox.getStats();
+        System.out.printf("commands     %d offered in %d ms, drained in %d ms%n",
+                count, offered / 1000000, drained / 1000000);
+        System.out.printf("reached      %d the machine (%.0f/s), %d executed, dropped by the mailbox %s, max depth %s%n",
+                stormReached, stormReached * 1e9 / drained, executed.get(),
+                queueStats.get("dropped"), queueStats.get("maxDepth"));
+        System.out.printf("transitions  %d, completions %d, errors %d, violations %d%n",
+                transitions.get(), completions.get(), errors.get(), violations);
+        final Map<String, Object> focusStats = focus.getStats();
+        System.out.printf("focus        %d losses, %s requests, %s skipped, %d delayed%n",
+                focusLosses.get(), focusStats.get("requests"), focusStats.get("skipped"), focusDelayed.get());
+        final PrintWriter writer = new PrintWriter(System.out);
+        metrics.dump(writer);
+        writer.flush();
+
+        for (final String failure : failures) System.out.println("FAIL " + failure);
+        System.out.println(failures.isEmpty() ? "OK" : "FAILED");
+        return failures.isEmpty();
+    }
+
+    public static void main(final String[] args) throws InterruptedException {
+        final int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        final long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        System.exit(new PlaybackStress(seed).run(count, seed) ? 0 : 1);
+    }
+}
@@ -0,0 +1,135 @@
+package com.johngu.music.Service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+// A State event from the moment MediaService builds it to the bytes handed to
+// the messenger: the map built by postState() and written the way Flutter's
+// StandardMethodCodec writes a method call, against the fixed-layout
+// StateEventCodec message. The channel hop itself is not on the JVM.
+@State(Scope.Thread)
+public class StateEventBenchmark {
+    private int position = 0;
+
+    @Benchmark
+    public Map<String, Object> buildMap() {
+        return map(nextPosition());
+    }
+
+    @Benchmark
+    public ByteBuffer mapEvent() {
+        return StandardCodec.encodeMethodCall("State", map(nextPosition()));
+    }
+
+    @Benchmark
+    public ByteBuffer binaryEvent() {
+        return StateEventCodec.encode(StateEventCodec.EVENT_STATE, StateEventCodec.STATE_STARTED,
+                nextPosition(), 215000, StateEventCodec.NONE);
+    }
+
+    private int nextPosition() {
+        position = (position + 250) % 215000;
+        return position;
+    }
+
+    // Same shape as MediaService.postState()
+    static private Map<String, Object> map(final int position) {
+        final Map<String, Object> result = new HashMap<>();
+        result.put("State", StateEventCodec.stateName(StateEventCodec.STATE_STARTED));
+        result.put("CurrentPosition", position);
+        result.put("Duration", 215000);
+        return result;
+    }
+
+    // Subset of io.flutter.plugin.common.StandardMessageCodec: the types a State
+    // event carries, same wire format, same growing output stream copied to a
+    // direct buffer at the end.
+    static final class StandardCodec {
+        static private final Charset UTF8 = Charset.forName("UTF-8");
+        static private final byte NULL = 0;
+        static private final byte TRUE = 1;
+        static private final byte FALSE = 2;
+        static private final byte INT = 3;
+        static private final byte LONG = 4;
+        static private final byte STRING = 7;
+        static private final byte MAP = 13;
+
+        static ByteBuffer encodeMethodCall(final String method, final Object arguments) {
+            final Output output = new Output();
+            writeValue(output, method);
+            writeValue(output, arguments);
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(output.size());
+            buffer.put(output.buffer(), 0, output.size());
+            return buffer;
+        }
+
+        static private void writeValue(final Output output, final Object value) {
+            if (value == null) {
+                output.write(NULL);
+            } else if (value instanceof Boolean) {
+                output.write((Boolean) value ? TRUE : FALSE);
+            } else if (value instanceof Integer) {
+                output.write(INT);
+                output.writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                output.write(LONG);
+                output.writeInt((int) (long) (Long) value);
+                output.writeInt((int) ((Long) value >>> 32));
+            } else if (value instanceof String) {
+                output.write(STRING);
+                final byte[] bytes = ((String) value).getBytes(UTF8);
+                writeSize(output, bytes.length);
+                output.write(bytes, 0, bytes.length);
+            } else if (value instanceof Map) {
+                output.write(MAP);
+                final Map<?, ?> map = (Map<?, ?>) value;
+                writeSize(output, map.size());
+                for (final Map.Entry<?, ?> entry : map.entrySet()) {
+                    writeValue(output, entry.getKey());
+                    writeValue(output, entry.getValue());
+                }
+            } else {
+                throw new IllegalArgumentException("Unsupported value: " + value);
+            }
+        }
+
+        static private void writeSize(final Output output, final int size) {
+            if (size < 254) {
+                output.write((byte) size);
+            } else if (size <= 0xffff) {
+                output.write((byte) 254);
+                output.write((byte) size);
+                output.write((byte) (size >>> 8));
+            } else {
+                output.write((byte) 255);
+                output.writeInt(size);
+            }
+        }
+    }
+
+    // The codec's exposed ByteArrayOutputStream, little-endian ints
+    static final class Output extends ByteArrayOutputStream {
+        final private byte[] scratch = new byte[4];
+
+        byte[] buffer() {
+            return buf;
+        }
+
+        void write(final byte b) {
+            write((int) b);
+        }
+
+        void writeInt(final int value) {
+            ByteBuffer.wrap(scratch).order(ByteOrder.LITTLE_ENDIAN).putInt(value);
+            write(scratch, 0, 4);
+        }
+    }
+}
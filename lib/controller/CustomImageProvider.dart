@@ -110,10 +110,22 @@ class Palette extends ChangeNotifier implements ValueListenable<Palette> {
 
   final ArtworkProvider artwork;
 
+  int _token;
+
   _listener() async {
     if (artwork.data == null) return clear();
-    final res = await Native.palette(data: artwork.data);
-    fromMap(res);
+    final token = _token = Native.nextPaletteToken();
+    final res =
+        await Native.paletteForFile(filePath: artwork.filePath, token: token);
+    if (token == _token) _token = null;
+    if (res != null) fromMap(res);
+  }
+
+  @override
+  void dispose() {
+    artwork.removeListener(_listener);
+    if (_token != null) Native.cancelPalette(_token);
+    super.dispose();
   }
 
   int count = 0;
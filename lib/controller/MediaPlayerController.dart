@@ -28,6 +28,13 @@ class MediaPlayerController {
 
   Future<dynamic> methodCallHandler(MethodCall methodCall) async {
     switch (methodCall.method) {
+      case 'Batch':
+        // events of one native frame, flat [method, arguments, ...]
+        final List events = methodCall.arguments;
+        for (int i = 0; i < events.length; i += 2)
+          await methodCallHandler(MethodCall(events[i], events[i + 1]));
+        return null;
+
       case 'start':
         debugPrint('onStart');
         start();
@@ -63,6 +70,30 @@ class MediaPlayerController {
         _toNext();
         return null;
 
+      case 'onNextDataSource':
+        // native side already switched players, only follow it
+        final upcoming = _upcoming;
+        if (upcoming == null ||
+            upcoming.filePath != methodCall.arguments['filePath']) return null;
+        _nativeAdvance = true;
+        current.value = upcoming;
+        current.notifyListeners();
+        return null;
+
+      case 'onQueueIndex':
+        // native queue moved on by itself, only follow it
+        final int index = methodCall.arguments['index'];
+        final playList = currentPlayList.value;
+        if (playList == null ||
+            index < 0 ||
+            index >= playList.length ||
+            playList[index].filePath != methodCall.arguments['filePath'] ||
+            current.value == playList[index]) return null;
+        _nativeAdvance = true;
+        current.value = playList[index];
+        current.notifyListeners();
+        return null;
+
       case 'onBufferingUpdate':
         return null;
       default:
@@ -74,6 +105,10 @@ class MediaPlayerController {
     switch (arguments['State']) {
       case 'started':
         state.value = MediaPlayerStatus.started;
+        if (arguments['TimeToFirstAudio'] != null) {
+          timeToFirstAudio.value = arguments['TimeToFirstAudio'];
+          timeToFirstAudio.notifyListeners();
+        }
 
         duration.value = arguments['Duration'];
         final int currentPosition = arguments['CurrentPosition'];
@@ -123,6 +158,10 @@ class MediaPlayerController {
 
   final CustomValueNotifier<int> duration = CustomValueNotifier(1);
 
+  // ms from setDataSource to audible output of the last started track,
+  // notified for every sample even when it repeats the previous one
+  final LazyValueNotifier<int> timeToFirstAudio = LazyValueNotifier(null);
+
   MediaPlayerController._internal(
       this.stateChangedController, this.progressController)
       : mediaPlayer = MediaPlayer() {
@@ -139,23 +178,39 @@ class MediaPlayerController {
 
     // start service instance
     mediaPlayer.init();
+    mediaPlayer.useBinaryStateEvents(
+        (method, arguments) => methodCallHandler(MethodCall(method, arguments)));
 
     // bind Listener
     current.addListener(() {
       final songInfo = current.value;
-      _setDataSource(
-          songInfo.filePath, songInfo.title, songInfo.artist, songInfo.album,
-          extendFilePath: songInfo.extendFilePath);
-      if (lastState == MediaPlayerStatus.started) start();
+      if (_nativeAdvance) {
+        _nativeAdvance = false;
+      } else if (_queued && currentIndex >= 0) {
+        mediaPlayer.skipTo(currentIndex);
+        if (lastState == MediaPlayerStatus.started) start();
+      } else {
+        _setDataSource(
+            songInfo.filePath, songInfo.title, songInfo.artist, songInfo.album,
+            extendFilePath: songInfo.extendFilePath);
+        if (lastState == MediaPlayerStatus.started) start();
+      }
+      // the native queue chains and prefetches by itself
+      if (!_queued) _setNextDataSource();
       return RecentLog.login(
           playlist: currentPlayList.value, songInfo: current.value);
     });
 
     currentPlayList.addListener(() {
+      _setQueue();
       return RecentLog.login(
           playlist: currentPlayList.value, songInfo: current.value);
     });
 
+    mediaPlayer.setQueueMode(sequenceMode.value.index);
+    sequenceMode.addListener(
+        () => mediaPlayer.setQueueMode(sequenceMode.value.index));
+
     state.addListener(() {
       if (state.value == MediaPlayerStatus.started)
         stateChangedController.animateTo(1.0,
@@ -171,6 +226,7 @@ class MediaPlayerController {
   void dispose() {
     current.dispose();
     currentPlayList.dispose();
+    timeToFirstAudio.dispose();
   }
 
   static void switchSequenceMode({final MediaPlayerSequenceMode mode}) {
@@ -238,6 +294,57 @@ class MediaPlayerController {
     mediaPlayer.setDataSource(filePath, title, artist, album, extendFilePath);
   }
 
+  SongInfoProvider _upcoming;
+  // the native side already switched tracks, [current] only follows it
+  bool _nativeAdvance = false;
+  // the native side holds the play list and resolves skips and completions
+  bool _queued = false;
+  // tracks after the upcoming one whose head is read ahead
+  static const _prefetchCount = 3;
+
+  _setQueue() {
+    final playList = currentPlayList.value;
+    _queued = playList != null && playList.isNotEmpty;
+    if (!_queued) {
+      mediaPlayer.setQueue(const [], -1);
+      return;
+    }
+    mediaPlayer.setQueue(
+        playList
+            .map((songInfo) => {
+                  'filePath': songInfo.filePath,
+                  'title': songInfo.title,
+                  'artist': songInfo.artist,
+                  'album': songInfo.album,
+                  'extendFilePath': songInfo.extendFilePath,
+                })
+            .toList(),
+        currentIndex);
+  }
+
+  // Only the plain repeat order is known ahead of time
+  _setNextDataSource() {
+    _upcoming = null;
+    if (sequenceMode.value != MediaPlayerSequenceMode.repeat ||
+        currentPlayList.value == null ||
+        currentPlayList.value.length < 2) {
+      mediaPlayer.prefetch(const []);
+      return;
+    }
+    final index = currentIndex;
+    if (index < 0) return;
+    final playList = currentPlayList.value;
+    _upcoming = playList[(index + 1) % playList.length];
+    mediaPlayer.setNextDataSource(_upcoming.filePath, _upcoming.title,
+        _upcoming.artist, _upcoming.album, _upcoming.extendFilePath);
+    // the next one is prepared already, warm the few after it
+    final paths = <String>[];
+    for (int i = 2; i <= min(_prefetchCount + 1, playList.length - 1); i++) {
+      paths.add(playList[(index + i) % playList.length].filePath);
+    }
+    mediaPlayer.prefetch(paths);
+  }
+
   seekTo(double value, {final bool skipAnimation = false}) {
     debugPrint("seekTo: $value");
     final position = (duration.value * value).toInt();
@@ -270,6 +377,10 @@ class MediaPlayerController {
 
   toPrevious() {
     debugPrint('toPrevious');
+    if (_queued) {
+      mediaPlayer.skipToPrevious();
+      return;
+    }
     if (currentPlayList.value == null) return;
     if (currentIndex == 0) {
       current.value = currentPlayList.value[currentPlayList.value.length - 1];
@@ -282,6 +393,10 @@ class MediaPlayerController {
   // just skip to next one
   toNext() {
     debugPrint('toNext');
+    if (_queued) {
+      mediaPlayer.skipToNext();
+      return;
+    }
     if (currentPlayList.value == null) return;
     if (currentIndex == currentPlayList.value.length - 1) {
       current.value = currentPlayList.value[0];
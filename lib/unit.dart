@@ -1,6 +1,7 @@
 library unit;
 
 export 'unit/Constants.dart';
+export 'unit/Library.dart';
 export 'unit/MediaMetadataRetriever.dart';
 export 'unit/Native.dart';
 export 'unit/Streams.dart';
@@ -0,0 +1,36 @@
+import 'dart:async';
+
+import 'package:flutter/material.dart';
+import 'package:flutter/services.dart';
+
+class Library {
+  static final MethodChannel _channel = MethodChannel("Library");
+
+  // Walks [directories] natively, only files whose size or mtime changed since
+  // the last scan are read again. Completes with {total, extracted, removed, elapsed},
+  // or a PlatformException when the scan failed and the old index was kept.
+  static Future<Map> scan({@required final List<String> directories}) {
+    return _channel.invokeMethod('scan', {'directories': directories});
+  }
+
+  static const int pageSize = 500;
+
+  // Records [offset, offset + count) of the memory mapped index as
+  // {total, tracks}, tracks being {filePath, title, artist, album, duration}
+  static Future<Map> page({final int offset = 0, final int count = pageSize}) {
+    return _channel.invokeMethod('page', {'offset': offset, 'count': count});
+  }
+
+  // The whole library, fetched in slices so no single message gets huge
+  static Stream<List<Map>> load() async* {
+    int offset = 0;
+    while (true) {
+      final Map page = await Library.page(offset: offset);
+      final List tracks = page['tracks'];
+      if (tracks.isEmpty) return;
+      yield tracks.cast<Map>();
+      offset += tracks.length;
+      if (offset >= page['total']) return;
+    }
+  }
+}
@@ -1,3 +1,4 @@
+import 'dart:async';
 import 'dart:typed_data';
 
 import 'package:flutter/foundation.dart';
@@ -5,18 +6,112 @@ import 'package:flutter/material.dart';
 import 'package:flutter/services.dart';
 
 class MediaMetadataRetriever {
-  static final MethodChannel _channel = MethodChannel("MediaMetadataRetriever");
+  static final MethodChannel _channel = MethodChannel("MediaMetadataRetriever")
+    ..setMethodCallHandler(handler);
 
+  static final StreamController<Map> _controller = StreamController.broadcast();
+
+  static Future handler(MethodCall methodCall) async {
+    switch (methodCall.method) {
+      case 'getBasicInfoBatch':
+        _controller.sink.add(methodCall.arguments);
+        break;
+    }
+  }
+
+  // Priorities understood by the native metadata executor
+  static const int priorityLow = 0;
+  static const int priorityNormal = 1;
+  static const int priorityHigh = 2;
+
+  // Pass a [token] to be able to [cancel] the request while it is still queued,
+  // a cancelled request completes with null.
   static Future<Uint8List> getEmbeddedPicture({
     @required final String filePath,
+    final int token,
+    final int priority = priorityHigh,
   }) async {
     return Future.microtask(() async {
-      return await _channel
-          .invokeMethod('getEmbeddedPicture', {'filePath': filePath});
+      return await _channel.invokeMethod('getEmbeddedPicture',
+          {'filePath': filePath, 'token': token, 'priority': priority});
+    });
+  }
+
+  // Native thumbnail sizes kept in the on-disk artwork cache
+  static const int thumbnailSmall = 128;
+  static const int thumbnailLarge = 512;
+
+  // Downscaled JPEG of the embedded artwork, served from the native disk cache
+  // after the first request for the file.
+  static Future<Uint8List> getThumbnail({
+    @required final String filePath,
+    final int size = thumbnailSmall,
+    final int token,
+    final int priority = priorityHigh,
+  }) {
+    return _channel.invokeMethod('getThumbnail', {
+      'filePath': filePath,
+      'size': size,
+      'token': token,
+      'priority': priority
     });
   }
 
-  static Future<Map<String, String>> getBasicInfo({@required String filePath}) {
-    return _channel.invokeMethod('getBasicInfo', {'filePath': filePath});
+  static Future<Map> getBasicInfo(
+      {@required String filePath,
+      final int token,
+      final int priority = priorityHigh}) {
+    return _channel.invokeMethod('getBasicInfo',
+        {'filePath': filePath, 'token': token, 'priority': priority});
+  }
+
+  // title / artist / album / duration / bitrate / mime from a single parse of
+  // the file, plus 'thumbnail' when [thumbnailSize] is given. Shares the
+  // native cache the playback notification reads from.
+  static Future<Map> getTrackInfo({
+    @required final String filePath,
+    final int thumbnailSize,
+    final int token,
+    final int priority = priorityHigh,
+  }) {
+    return _channel.invokeMethod('getTrackInfo', {
+      'filePath': filePath,
+      'thumbnailSize': thumbnailSize,
+      'token': token,
+      'priority': priority
+    });
+  }
+
+  static Future<bool> cancel(final int token) {
+    return _channel.invokeMethod('cancel', {'token': token});
+  }
+
+  static Future<Map> getMetrics() {
+    return _channel.invokeMethod('getMetrics');
+  }
+
+  // created / destroyed / discarded retrievers and averagePooledMicros
+  // against averageUnpooledMicros, the cost of a fresh retriever per call
+  static Future<Map> getPoolMetrics() {
+    return _channel.invokeMethod('getPoolMetrics');
+  }
+
+  static int batchToken = 0;
+
+  // Emits chunks of basic info maps (each carrying its 'filePath') until the
+  // whole list has been read.
+  static Stream<List<Map>> getBasicInfoBatch(
+      {@required List<String> filePaths}) async* {
+    assert(filePaths != null);
+    final token = batchToken++;
+    final messages =
+        _controller.stream.where((event) => event['token'] == token);
+    _channel.invokeMethod(
+        'getBasicInfoBatch', {'filePaths': filePaths, 'token': token});
+
+    await for (final message in messages) {
+      yield List<Map>.from(message['results']);
+      if (message['done'] == true) break;
+    }
   }
 }
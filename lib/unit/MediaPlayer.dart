@@ -1,7 +1,16 @@
+import 'dart:typed_data';
+
 import 'package:flutter/services.dart';
 
 class MediaPlayer {
   static final _channel = const MethodChannel('MediaPlayer');
+  static final _positionChannel = const EventChannel('MediaPlayer/position');
+  static final _stateChannel =
+      const BasicMessageChannel<ByteData>('MediaPlayer/state', BinaryCodec());
+
+  static const _stateNames = ['end', 'started', 'paused'];
+  static const _eventNames = ['State', 'onSeekComplete'];
+  static const _none = -1;
   static MediaPlayer instance;
 
   factory MediaPlayer() {
@@ -44,6 +53,91 @@ class MediaPlayer {
     });
   }
 
+  // Prepares the track that follows the current one so it starts gaplessly,
+  // the native side reports the switch with 'onNextDataSource'.
+  setNextDataSource(
+    final String filePath,
+    final String title,
+    final String artist,
+    final String album,
+    final String extendFilePath,
+  ) {
+    return _channel.invokeMethod('setNextDataSource', {
+      'filePath': filePath,
+      'title': title,
+      'artist': artist,
+      'album': album,
+      'extendFilePath': extendFilePath
+    });
+  }
+
+  // Hands the play order to the native side, which then resolves skips and
+  // completions itself and reports them as 'onQueueIndex'. [tracks] are maps
+  // of filePath / title / artist / album / extendFilePath, [index] is the
+  // current track and keeps playing. An empty list gives skips back to Dart.
+  Future<void> setQueue(final List<Map<String, String>> tracks, final int index) {
+    return _channel.invokeMethod('setQueue', {'tracks': tracks, 'index': index});
+  }
+
+  // [mode] is the index of MediaPlayerSequenceMode
+  Future<void> setQueueMode(final int mode) {
+    return _channel.invokeMethod('setQueueMode', {'mode': mode});
+  }
+
+  Future<void> skipTo(final int index) {
+    return _channel.invokeMethod('skipTo', {'index': index});
+  }
+
+  Future<void> skipToNext() {
+    return _channel.invokeMethod('skipToNext');
+  }
+
+  Future<void> skipToPrevious() {
+    return _channel.invokeMethod('skipToPrevious');
+  }
+
+  // Reads the first [bytesPerTrack] of each upcoming track, in play order and
+  // [budget] bytes in total, so their prepare does not wait on cold storage.
+  // Replaces the previous request, an empty list cancels it.
+  Future<void> prefetch(
+    final List<String> paths, {
+    final int bytesPerTrack = 512 * 1024,
+    final int budget = 4 * 1024 * 1024,
+  }) {
+    return _channel.invokeMethod('prefetch',
+        {'paths': paths, 'bytesPerTrack': bytesPerTrack, 'budget': budget});
+  }
+
+  // Pushed by the native side as [position, duration, state] (ms, ms,
+  // PlaybackStateCompat state) every [interval] while playing and on every
+  // play / pause / seek, replaces polling the getters below.
+  Stream<List<int>> positionStream({final Duration interval = const Duration(milliseconds: 500)}) {
+    return _positionChannel
+        .receiveBroadcastStream({'interval': interval.inMilliseconds})
+        .map((event) => List<int>.from(event));
+  }
+
+  // Switches "State" / "onSeekComplete" events to the fixed-layout binary
+  // message (five little-endian int32: event, state, position, duration,
+  // timeToFirstAudio). [handler] receives them decoded back to the map form.
+  useBinaryStateEvents(Function(String method, Map arguments) handler) {
+    _stateChannel.setMessageHandler((ByteData data) async {
+      final event = data.getInt32(0, Endian.little);
+      final state = data.getInt32(4, Endian.little);
+      final position = data.getInt32(8, Endian.little);
+      final duration = data.getInt32(12, Endian.little);
+      final timeToFirstAudio = data.getInt32(16, Endian.little);
+      handler(_eventNames[event], {
+        'State': _stateNames[state],
+        if (position != _none) 'CurrentPosition': position,
+        if (duration != _none) 'Duration': duration,
+        if (timeToFirstAudio != _none) 'TimeToFirstAudio': timeToFirstAudio,
+      });
+      return null;
+    });
+    return _channel.invokeMethod('setBinaryStateEvents', {'enable': true});
+  }
+
   Future<int> getCurrentPosition() {
     return _channel.invokeMethod('getCurrentPosition');
   }
@@ -68,7 +162,63 @@ class MediaPlayer {
     _channel.invokeMethod('setVolume', {'volume': volume});
   }
 
+  // Fade lengths in milliseconds, 0 disables. A crossfade overlaps the end of
+  // a track with the next one instead of chaining them gaplessly.
+  void setFadeDurations(
+      {final int fadeIn = 200, final int fadeOut = 200, final int crossfade = 0}) {
+    _channel.invokeMethod('setFadeDurations',
+        {'fadeIn': fadeIn, 'fadeOut': fadeOut, 'crossfade': crossfade});
+  }
+
   Future<double> getVolume() {
     return _channel.invokeMethod('getVolume');
   }
+
+  // hit / miss / reuse counters of the native notification artwork cache
+  Future<Map> getBitmapCacheStats() {
+    return _channel.invokeMethod('getBitmapCacheStats');
+  }
+
+  // depth / maxDepth / enqueued / dropped of the native command queue
+  Future<Map> getCommandQueueStats() {
+    return _channel.invokeMethod('getCommandQueueStats');
+  }
+
+  // Reuse counters and pooled / unpooled cost of the notification's retriever
+  Future<Map> getRetrieverPoolStats() {
+    return _channel.invokeMethod('getRetrieverPoolStats');
+  }
+
+  // requested / coalesced / unchanged / posted / avoided notification updates
+  Future<Map> getNotificationStats() {
+    return _channel.invokeMethod('getNotificationStats');
+  }
+
+  // dispatched / coalesced / deferred / sent events and batches of the native dispatcher
+  Future<Map> getEventStats() {
+    return _channel.invokeMethod('getEventStats');
+  }
+
+  // registered / owned / requests / abandons / skipped audio focus requests
+  Future<Map> getAudioFocusStats() {
+    return _channel.invokeMethod('getAudioFocusStats');
+  }
+
+  // requests / files / skipped / cancelled / bytes / busyMs of the track prefetcher
+  Future<Map> getPrefetchStats() {
+    return _channel.invokeMethod('getPrefetchStats');
+  }
+
+  // count / mean / p50 / p90 / p99 / max microseconds per playback stage
+  Future<Map> getMetrics() {
+    return _channel.invokeMethod('getMetrics');
+  }
+
+  Future<void> setMetricsEnabled(final bool enable) {
+    return _channel.invokeMethod('setMetricsEnabled', {'enable': enable});
+  }
+
+  Future<void> resetMetrics() {
+    return _channel.invokeMethod('resetMetrics');
+  }
 }
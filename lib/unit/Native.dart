@@ -33,18 +33,59 @@ class Native {
 
   static int paletteToken = 0;
 
-  static Future<Map> palette({@required Uint8List data}) async {
+  // Priorities of the native palette queue, the newest request of the highest
+  // priority runs first and the queue drops the least wanted once full.
+  static const int palettePriorityLow = 0;
+  static const int palettePriorityNormal = 1;
+  static const int palettePriorityHigh = 2;
+
+  static int nextPaletteToken() => paletteToken++;
+
+  // Pass a [token] from [nextPaletteToken] to be able to [cancelPalette];
+  // a cancelled or dropped request completes with null.
+  static Future<Map> palette(
+      {@required Uint8List data,
+      int token,
+      int priority = palettePriorityHigh}) async {
     assert(_controller != null, 'Native palette required Native call [init]');
     assert(data != null);
-    final token = paletteToken++;
-    _channel.invokeMethod('Palette', {'data': data, 'token': token});
+    token ??= nextPaletteToken();
+    _channel.invokeMethod(
+        'Palette', {'data': data, 'token': token, 'priority': priority});
+    return _paletteResult(token);
+  }
+
+  // Palette of the artwork embedded in [filePath]; the artwork is read and
+  // downscaled natively, only the swatch colors cross the channel.
+  static Future<Map> paletteForFile(
+      {@required String filePath,
+      int token,
+      int priority = palettePriorityHigh}) async {
+    assert(_controller != null, 'Native palette required Native call [init]');
+    assert(filePath != null);
+    token ??= nextPaletteToken();
+    _channel.invokeMethod('PaletteForFile',
+        {'filePath': filePath, 'token': token, 'priority': priority});
+    return _paletteResult(token);
+  }
+
+  static Future<bool> cancelPalette(final int token) {
+    return _channel.invokeMethod('cancelPalette', {'token': token});
+  }
+
+  // queue wait / run time of the native palette queue
+  static Future<Map> getPaletteMetrics() {
+    return _channel.invokeMethod('getPaletteMetrics');
+  }
 
+  static Future<Map> _paletteResult(final int token) async {
     final res = await _controller.stream.firstWhere((event) {
       if (event is Map && event['token'] == token) return true;
       return false;
     }) as Map;
+    if (res['cancelled'] == true) return null;
     res.forEach((final key, final data) {
-      if (data == null) return;
+      if (data == null || key == 'token') return;
       res[key] = colorParse(data);
     });
     return res;